@@ -0,0 +1,296 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+import nachos.threads.KThread;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for simulated activity, so that a recording of
+ * the host JVM shows what Nachos was doing at the time. Every event carries
+ * the simulated time, and the name and process ID of the Nachos thread that
+ * was running.
+ *
+ * <ul>
+ * <li><tt>nachos.ContextSwitch</tt>: one Nachos thread switched to another.
+ * <li><tt>nachos.Interrupt</tt>: an interrupt handler ran; its duration is
+ * the host time the handler took.
+ * <li><tt>nachos.Trap</tt>: the processor raised an exception, and the
+ * kernel's exception handler ran.
+ * <li><tt>nachos.Syscall</tt>: a user process made a system call.
+ * <li><tt>nachos.FileOperation</tt>: an operation on the stub file system.
+ * </ul>
+ *
+ * <p>
+ * The events are only filled in and committed while a recording has them
+ * enabled, so they cost almost nothing otherwise. To record them, run Nachos
+ * with <tt>-XX:StartFlightRecording</tt>, or start a recording with
+ * <tt>jcmd</tt>. This class needs Java 11 or later.
+ */
+public final class FlightEvents {
+    /**
+     * Prevent instantiation.
+     */
+    private FlightEvents() {
+    }
+
+    /**
+     * Register the event types with the flight recorder. Registering loads
+     * JFR and sets up its instrumentation, which needs permissions the Nachos
+     * security manager never grants, so this is called before the security
+     * manager is enabled.
+     *
+     * <p>
+     * Committing an event loads a handler class generated by JFR, which also
+     * needs a permission, so events are committed with the privilege given
+     * here.
+     *
+     * @param	privilege	encapsulates privileged access to the Nachos
+     *				machine.
+     */
+    static void initialize(Privilege privilege) {
+	FlightEvents.privilege = privilege;
+
+	FlightRecorder.register(ContextSwitch.class);
+	FlightRecorder.register(InterruptHandler.class);
+	FlightRecorder.register(Trap.class);
+	FlightRecorder.register(Syscall.class);
+	FlightRecorder.register(FileOperation.class);
+    }
+
+    /**
+     * The fields shared by all Nachos events.
+     */
+    @Category("Nachos")
+    @StackTrace(false)
+    public static abstract class NachosEvent extends Event {
+	/** Fill in the shared fields, for the thread running now. */
+	void fill() {
+	    KThread thread = (TCB.currentTCB() == null) ? null :
+		TCB.currentTCB().getNachosThread();
+	    fill(thread);
+	}
+
+	/** Fill in the shared fields, for <i>thread</i>. */
+	void fill(KThread thread) {
+	    tick = (Machine.timer() == null) ? 0 : Machine.timer().getTime();
+	    if (thread != null) {
+		this.thread = thread.toString();
+		processID = thread.getProcessID();
+	    }
+	    else {
+		processID = -1;
+	    }
+	}
+
+	@Label("Tick")
+	long tick;
+	@Label("Nachos Thread")
+	String thread;
+	@Label("Process ID")
+	int processID;
+    }
+
+    /** A context switch between two Nachos threads. */
+    @Name("nachos.ContextSwitch")
+    @Label("Context Switch")
+    public static final class ContextSwitch extends NachosEvent {
+	@Label("Next Thread")
+	String nextThread;
+	@Label("Next Process ID")
+	int nextProcessID;
+    }
+
+    /** An interrupt handler being run. */
+    @Name("nachos.Interrupt")
+    @Label("Interrupt Handler")
+    public static final class InterruptHandler extends NachosEvent {
+	@Label("Type")
+	String type;
+    }
+
+    /** A processor exception being handled. */
+    @Name("nachos.Trap")
+    @Label("Trap")
+    public static final class Trap extends NachosEvent {
+	@Label("Exception")
+	String exception;
+	@Label("Bad Virtual Address")
+	int badVAddr;
+    }
+
+    /** A system call being handled. */
+    @Name("nachos.Syscall")
+    @Label("Syscall")
+    public static final class Syscall extends NachosEvent {
+	@Label("Syscall")
+	int syscall;
+	@Label("Result")
+	int result;
+    }
+
+    /** An operation on the stub file system. */
+    @Name("nachos.FileOperation")
+    @Label("File Operation")
+    public static final class FileOperation extends NachosEvent {
+	@Label("Operation")
+	String operation;
+	@Label("File")
+	String file;
+	@Label("Bytes Requested")
+	int length;
+	@Label("Result")
+	int result;
+    }
+
+    /**
+     * Record a context switch.
+     *
+     * @param	from	the thread giving up the processor.
+     * @param	to	the thread receiving it, or <tt>null</tt> if it has
+     *			not run before.
+     */
+    static void contextSwitch(KThread from, KThread to) {
+	ContextSwitch event = new ContextSwitch();
+	if (!event.isEnabled())
+	    return;
+
+	event.fill(from);
+	// a new thread is only associated with its TCB once it first runs
+	if (to != null) {
+	    event.nextThread = to.toString();
+	    event.nextProcessID = to.getProcessID();
+	}
+	else {
+	    event.nextProcessID = -1;
+	}
+	commit(event);
+    }
+
+    /**
+     * Start timing an interrupt handler. Pass the result to
+     * <tt>end()</tt> when the handler returns.
+     *
+     * @param	type	the type of interrupt.
+     * @return	the event.
+     */
+    static InterruptHandler beginInterrupt(String type) {
+	InterruptHandler event = new InterruptHandler();
+	if (event.isEnabled()) {
+	    event.begin();
+	    event.fill();
+	    event.type = type;
+	}
+	return event;
+    }
+
+    /**
+     * Start timing the handling of a processor exception. Pass the result to
+     * <tt>end()</tt> when the exception handler returns.
+     *
+     * @param	cause	the exception, one of the
+     *			<tt>Processor.exceptionZZZ</tt> constants.
+     * @param	badVAddr	the faulting address, if any.
+     * @return	the event.
+     */
+    static Trap beginTrap(int cause, int badVAddr) {
+	Trap event = new Trap();
+	if (event.isEnabled()) {
+	    event.begin();
+	    event.fill();
+	    event.exception = Processor.exceptionNames[cause];
+	    event.badVAddr = badVAddr;
+	}
+	return event;
+    }
+
+    /**
+     * Start timing a system call. Pass the result to <tt>end()</tt> when the
+     * system call returns.
+     *
+     * @param	syscall	the syscall number.
+     * @return	the event.
+     */
+    public static Syscall beginSyscall(int syscall) {
+	Syscall event = new Syscall();
+	if (event.isEnabled()) {
+	    event.begin();
+	    event.fill();
+	    event.syscall = syscall;
+	}
+	return event;
+    }
+
+    /**
+     * Start timing a file system operation. Pass the result to
+     * <tt>end()</tt> when the operation returns.
+     *
+     * @param	operation	the name of the operation.
+     * @param	file		the name of the file.
+     * @param	length		the number of bytes requested, or 0.
+     * @return	the event.
+     */
+    public static FileOperation beginFileOperation(String operation,
+						   String file, int length) {
+	FileOperation event = new FileOperation();
+	if (event.isEnabled()) {
+	    event.begin();
+	    event.fill();
+	    event.operation = operation;
+	    event.file = file;
+	    event.length = length;
+	}
+	return event;
+    }
+
+    /**
+     * Commit an event with privilege, if a recording has it enabled.
+     */
+    private static void commit(final NachosEvent event) {
+	if (event.isEnabled()) {
+	    privilege.doPrivileged(new Runnable() {
+		    public void run() { event.commit(); }
+		});
+	}
+    }
+
+    /**
+     * Finish timing an event and commit it.
+     *
+     * @param	event	the event returned by <tt>beginZZZ()</tt>.
+     */
+    public static void end(NachosEvent event) {
+	commit(event);
+    }
+
+    /**
+     * Finish timing a system call and commit it.
+     *
+     * @param	event	the event returned by <tt>beginSyscall()</tt>.
+     * @param	result	the value returned to the user.
+     */
+    public static void end(Syscall event, int result) {
+	event.result = result;
+	commit(event);
+    }
+
+    /**
+     * Finish timing a file system operation and commit it.
+     *
+     * @param	event	the event returned by <tt>beginFileOperation()</tt>.
+     * @param	result	the result of the operation.
+     */
+    public static void end(FileOperation event, int result) {
+	event.result = result;
+	commit(event);
+    }
+
+    private static Privilege privilege = null;
+}
@@ -54,6 +54,9 @@ public final class Interrupt {
 	
 	enabled = false;
 	pending = new TreeSet<PendingInterrupt>();
+
+	if (Config.getBoolean("Machine.traceInterruptsOff", false))
+	    tracer = new InterruptTracer();
     }
 
     /**
@@ -95,8 +98,11 @@ public final class Interrupt {
     public boolean setStatus(boolean status) {
 	boolean oldStatus = enabled;
 	enabled = status;
+
+	if (tracer != null && oldStatus != status)
+	    tracer.statusChanged(oldStatus, status);
 	
-        Lib.debug('I',"Setting interrupt status to "+status);
+        Lib.debug('I', "Setting interrupt status to %s", status);
         
 	if (oldStatus == false && status == true)
 	    tick(true);
@@ -128,9 +134,10 @@ public final class Interrupt {
 	long time = privilege.stats.totalTicks + when;
 	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
-	Lib.debug(dbgInt,
-		  "Scheduling the " + type +
-		  " interrupt handler at time = " + time);
+	if (Lib.test(dbgInt))
+	    Lib.debug(dbgInt,
+		      "Scheduling the " + type +
+		      " interrupt handler at time = " + time);
 
 	pending.add(toOccur);
     }
@@ -169,7 +176,8 @@ public final class Interrupt {
 	if (((PendingInterrupt) pending.first()).time > time)
 	    return;
 
-	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
+	if (Lib.test(dbgInt))
+	    Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 	
 	while (!pending.isEmpty() &&
 	       ((PendingInterrupt) pending.first()).time <= time) {
@@ -181,9 +189,13 @@ public final class Interrupt {
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
+	    Lib.debug(dbgInt, "  %s", next.type);
 			
+	    TimelineTrace.instant("interrupt", next.type);
+	    FlightEvents.InterruptHandler event =
+		FlightEvents.beginInterrupt(next.type);
 	    next.handler.run();
+	    FlightEvents.end(event);
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
@@ -240,6 +252,7 @@ public final class Interrupt {
 
     private boolean enabled;
     private TreeSet<PendingInterrupt> pending;
+    private InterruptTracer tracer = null;
 
     private static final char dbgInt = 'i';
 
@@ -0,0 +1,127 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+/**
+ * Measures how long interrupts stay disabled. Every interrupts-off section,
+ * from the <tt>setStatus()</tt> call that disables interrupts to the one that
+ * enables them again, is timed and added to a histogram, and the longest
+ * sections are kept together with the place that disabled interrupts.
+ *
+ * <p>
+ * Simulated time does not advance while interrupts are disabled, so sections
+ * are timed with the host's clock (<tt>System.nanoTime()</tt>). That
+ * measures the kernel code run inside the section, which is what would delay
+ * interrupt delivery on real hardware. A section that contains a context
+ * switch is charged to the thread that disabled interrupts.
+ *
+ * <p>
+ * The tracer is enabled by setting <tt>Machine.traceInterruptsOff</tt> to
+ * true. Its report is printed when the machine halts.
+ */
+public final class InterruptTracer {
+    /**
+     * Allocate a new interrupt tracer.
+     */
+    InterruptTracer() {
+	Machine.addHaltHandler(new Runnable() {
+		public void run() { print(); }
+	    });
+    }
+
+    /**
+     * Called by <tt>Interrupt.setStatus()</tt> on every status change.
+     *
+     * @param	oldStatus	<tt>true</tt> if interrupts were enabled.
+     * @param	status		<tt>true</tt> if interrupts are now enabled.
+     */
+    void statusChanged(boolean oldStatus, boolean status) {
+	if (oldStatus && !status) {
+	    // the stack trace itself is only materialized if it is reported
+	    site = new Throwable();
+	    startTime = System.nanoTime();
+	}
+	else if (!oldStatus && status && site != null) {
+	    record(System.nanoTime() - startTime, site);
+	    site = null;
+	}
+    }
+
+    private void record(long nanos, Throwable site) {
+	numSections++;
+	totalNanos += nanos;
+
+	int bucket = 0;
+	for (long n = nanos; n > 0 && bucket < histogram.length-1; n >>= 1)
+	    bucket++;
+	histogram[bucket]++;
+
+	// keep the longest sections, sorted longest first
+	if (nanos <= longestNanos[longestNanos.length-1])
+	    return;
+
+	int i = longestNanos.length-1;
+	while (i > 0 && nanos > longestNanos[i-1]) {
+	    longestNanos[i] = longestNanos[i-1];
+	    longestSites[i] = longestSites[i-1];
+	    i--;
+	}
+	longestNanos[i] = nanos;
+	longestSites[i] = site;
+    }
+
+    /**
+     * Return the first few frames of <i>site</i> outside the interrupt
+     * controller, innermost first.
+     */
+    private static String callSite(Throwable site) {
+	StackTraceElement[] trace = site.getStackTrace();
+	StringBuffer result = new StringBuffer();
+	int frames = 0;
+	for (int i=0; i<trace.length && frames<numFrames; i++) {
+	    String className = trace[i].getClassName();
+	    if (className.equals(Interrupt.class.getName()) ||
+		className.equals(InterruptTracer.class.getName()))
+		continue;
+
+	    if (frames++ > 0)
+		result.append(" < ");
+	    result.append(className.substring(className.lastIndexOf('.')+1)
+			  + "." + trace[i].getMethodName() + ":"
+			  + trace[i].getLineNumber());
+	}
+	return (frames > 0) ? result.toString() : "(unknown)";
+    }
+
+    /**
+     * Print the histogram of section lengths and the longest sections.
+     */
+    public void print() {
+	System.out.println("Interrupts off: " + numSections + " sections, "
+			   + (totalNanos / 1000) + " us total");
+
+	System.out.println("Section length (ns: sections):");
+	for (int i=0; i<histogram.length; i++) {
+	    if (histogram[i] != 0)
+		System.out.println("  <" + (1L<<i) + ": " + histogram[i]);
+	}
+
+	System.out.println("Longest sections:");
+	for (int i=0; i<longestSites.length && longestSites[i] != null; i++) {
+	    System.out.println("  " + longestNanos[i] + " ns at "
+			       + callSite(longestSites[i]));
+	}
+    }
+
+    private Throwable site = null;
+    private long startTime;
+
+    private long numSections = 0;
+    private long totalNanos = 0;
+    private int[] histogram = new int[48];
+
+    private static final int numFrames = 4;
+    private static final int numLongest = 10;
+    private long[] longestNanos = new long[numLongest];
+    private Throwable[] longestSites = new Throwable[numLongest];
+}
@@ -123,7 +123,134 @@ public final class Lib {
      */
     public static void debug(char flag, String message) {
 	if (test(flag))
-	    System.out.println(message);
+	    log(message, 0, null, null, null);
+    }
+
+    /**
+     * Print a message built from <i>format</i> and one argument if
+     * <i>flag</i> was enabled, as by <tt>String.format()</tt>. Unlike
+     * <tt>debug(flag, "..." + arg)</tt>, nothing is concatenated or
+     * formatted when the flag is off, so this is cheap enough for hot paths.
+     * Primitive arguments are boxed, so for <tt>long</tt> values that may be
+     * large, test the flag with <tt>test()</tt> first.
+     *
+     * @param	flag	the debug flag that must be set to print this message.
+     * @param	format	the format of the message.
+     * @param	arg1	the argument.
+     */
+    public static void debug(char flag, String format, Object arg1) {
+	if (test(flag))
+	    log(format, 1, arg1, null, null);
+    }
+
+    /**
+     * Print a message built from <i>format</i> and two arguments if
+     * <i>flag</i> was enabled.
+     *
+     * @see	#debug(char,String,Object)
+     */
+    public static void debug(char flag, String format, Object arg1,
+			     Object arg2) {
+	if (test(flag))
+	    log(format, 2, arg1, arg2, null);
+    }
+
+    /**
+     * Print a message built from <i>format</i> and three arguments if
+     * <i>flag</i> was enabled.
+     *
+     * @see	#debug(char,String,Object)
+     */
+    public static void debug(char flag, String format, Object arg1,
+			     Object arg2, Object arg3) {
+	if (test(flag))
+	    log(format, 3, arg1, arg2, arg3);
+    }
+
+    /**
+     * Send a debug message to the ring buffer if there is one, or print it.
+     */
+    private static void log(String format, int numArgs, Object arg1,
+			    Object arg2, Object arg3) {
+	if (ringFormats == null) {
+	    System.out.println(formatMessage(format, numArgs, arg1, arg2, arg3));
+	    return;
+	}
+
+	if (ringCount == ringFormats.length)
+	    flushDebugRing();
+
+	int i = (ringStart + ringCount) % ringFormats.length;
+	ringFormats[i] = format;
+	ringNumArgs[i] = numArgs;
+	ringArgs1[i] = arg1;
+	ringArgs2[i] = arg2;
+	ringArgs3[i] = arg3;
+	ringCount++;
+    }
+
+    private static String formatMessage(String format, int numArgs,
+					Object arg1, Object arg2, Object arg3) {
+	switch (numArgs) {
+	case 0:
+	    return format;
+	case 1:
+	    return String.format(format, arg1);
+	case 2:
+	    return String.format(format, arg1, arg2);
+	default:
+	    return String.format(format, arg1, arg2, arg3);
+	}
+    }
+
+    /**
+     * Buffer debug messages in a ring of <i>size</i> entries instead of
+     * printing each one as it is logged. The messages are formatted and
+     * printed together when the ring fills up and when Nachos terminates,
+     * so logging only stores references. Because formatting is deferred,
+     * arguments should be values that do not change, such as strings,
+     * boxed numbers and threads.
+     *
+     * @param	size	the number of messages to buffer, or 0 to print
+     *			messages directly.
+     */
+    public static void setDebugRing(int size) {
+	flushDebugRing();
+
+	if (size <= 0) {
+	    ringFormats = null;
+	    return;
+	}
+
+	ringFormats = new String[size];
+	ringNumArgs = new int[size];
+	ringArgs1 = new Object[size];
+	ringArgs2 = new Object[size];
+	ringArgs3 = new Object[size];
+	ringStart = ringCount = 0;
+    }
+
+    /**
+     * Format and print every message in the debug ring, oldest first, and
+     * empty the ring.
+     */
+    public static void flushDebugRing() {
+	if (ringFormats == null || ringCount == 0)
+	    return;
+
+	StringBuffer out = new StringBuffer();
+	for (; ringCount > 0; ringCount--) {
+	    int i = ringStart;
+	    out.append(formatMessage(ringFormats[i], ringNumArgs[i],
+				     ringArgs1[i], ringArgs2[i], ringArgs3[i]));
+	    out.append('\n');
+
+	    ringFormats[i] = null;
+	    ringArgs1[i] = ringArgs2[i] = ringArgs3[i] = null;
+	    ringStart = (ringStart + 1) % ringFormats.length;
+	}
+	System.out.print(out);
+	System.out.flush();
     }
 
     /**
@@ -164,6 +291,12 @@ public final class Lib {
     /** Debug flags specified on the command line. */
     private static boolean debugFlags[];
 
+    /** Buffered debug messages, or null to print them directly. */
+    private static String ringFormats[] = null;
+    private static int ringNumArgs[];
+    private static Object ringArgs1[], ringArgs2[], ringArgs3[];
+    private static int ringStart, ringCount;
+
     /**
      * Read a file, verifying that the requested number of bytes is read, and
      * verifying that the read operation took a non-zero amount of time.
@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.ag.*;
 
 import java.io.File;
+import java.util.LinkedList;
+import java.util.Iterator;
 
 /**
  * The master class of the simulated machine. Processes command line arguments,
@@ -27,6 +29,8 @@ public final class Machine {
 
 	Config.load(configFileName);
 
+	Lib.setDebugRing(Config.getInteger("Machine.debugRing", 0));
+
 	// get the current directory (.)
 	baseDirectory = new File(new File("").getAbsolutePath());
 	// get the nachos directory (./nachos)
@@ -52,6 +56,8 @@ public final class Machine {
 	TCB.givePrivilege(privilege);
 	privilege.stats = stats;
 
+	FlightEvents.initialize(privilege);
+
 	securityManager.enable();
 	createDevices();
 	checkUserClasses();
@@ -75,6 +81,7 @@ public final class Machine {
      * Terminate Nachos. Same as <tt>TCB.die()</tt>.
      */
     public static void terminate() {
+	Lib.flushDebugRing();
 	TCB.die();
     }
 
@@ -97,9 +104,27 @@ public final class Machine {
     public static void halt() {
 	System.out.print("Machine halting!\n\n");
 	stats.print();
+
+	for (Iterator<Runnable> i=haltHandlers.iterator(); i.hasNext(); )
+	    i.next().run();
+
 	terminate();
     }
 
+    /**
+     * Add a handler to be run by <tt>halt()</tt> after the statistics are
+     * printed. Kernel subsystems use this to report their own statistics.
+     * Handlers run in the order they were added.
+     *
+     * @param	handler	the handler to run when the machine halts.
+     */
+    public static void addHaltHandler(Runnable handler) {
+	haltHandlers.add(handler);
+    }
+
+    private static LinkedList<Runnable> haltHandlers =
+	new LinkedList<Runnable>();
+
     /**
      * Return an array containing all command line arguments.
      *
@@ -169,6 +194,8 @@ public final class Machine {
     private static void createDevices() {
 	interrupt = new Interrupt(privilege);
 	timer = new Timer(privilege);
+	Metrics.initialize(privilege, stats);
+	TimelineTrace.initialize(privilege, stats);
 
 	if (Config.getBoolean("Machine.bank"))
 	    bank = new ElevatorBank(privilege);
@@ -344,6 +371,15 @@ public final class Machine {
      */
     public static NetworkLink networkLink() { return networkLink; }
     
+    /**
+     * Return the runtime statistics. Kernel code may update the counters
+     * that describe kernel-level events, such as missed deadlines, but must
+     * not modify the tick counters.
+     *
+     * @return	the runtime statistics.
+     */
+    public static Stats stats() { return stats; }
+
     /**
      * Return the autograder.
      *
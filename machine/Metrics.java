@@ -0,0 +1,441 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of named metrics that any part of Nachos can register into:
+ *
+ * <ul>
+ * <li><tt>Counter</tt>: a count that only goes up, updated by Nachos
+ * threads.
+ * <li><tt>StripedCounter</tt>: a counter that stays correct when it is
+ * updated from several Java threads at once, such as device code running
+ * outside the Nachos threads.
+ * <li><tt>Gauge</tt>: a value read on demand, such as a queue length or a
+ * field of <tt>Stats</tt>.
+ * <li><tt>Histogram</tt>: a distribution of tick counts, in power-of-two
+ * buckets.
+ * </ul>
+ *
+ * <p>
+ * Names are dotted paths, such as <tt>threads.dispatchLatency</tt>.
+ * Registering a name that already exists returns the existing metric, so
+ * several instances of a subsystem can share a metric.
+ *
+ * <p>
+ * If <tt>Metrics.snapshotFile</tt> is set, a snapshot of every metric is
+ * appended to that file every <tt>Metrics.snapshotInterval</tt> ticks
+ * (10000 by default) and when the machine halts. Files whose names end in
+ * <tt>.csv</tt> get comma-separated rows; any other file gets one JSON
+ * object per line.
+ */
+public final class Metrics {
+    /**
+     * Prevent instantiation.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * A count that only goes up. Must only be updated by Nachos threads.
+     */
+    public static final class Counter {
+	private Counter() {
+	}
+
+	/** Add one to the count. */
+	public void increment() {
+	    count++;
+	}
+
+	/**
+	 * Add to the count.
+	 *
+	 * @param	amount	the amount to add.
+	 */
+	public void add(long amount) {
+	    count += amount;
+	}
+
+	/**
+	 * Return the count.
+	 *
+	 * @return	the count.
+	 */
+	public long get() {
+	    return count;
+	}
+
+	private long count = 0;
+    }
+
+    /**
+     * A counter that can be updated from any Java thread. Updates go to one
+     * of several cells chosen by the updating thread, so concurrent updates
+     * neither contend nor get lost; reading adds the cells up.
+     */
+    public static final class StripedCounter {
+	private StripedCounter() {
+	}
+
+	/** Add one to the count. */
+	public void increment() {
+	    cells.increment();
+	}
+
+	/**
+	 * Add to the count.
+	 *
+	 * @param	amount	the amount to add.
+	 */
+	public void add(long amount) {
+	    cells.add(amount);
+	}
+
+	/**
+	 * Return the count.
+	 *
+	 * @return	the sum of all cells.
+	 */
+	public long get() {
+	    return cells.sum();
+	}
+
+	private LongAdder cells = new LongAdder();
+    }
+
+    /**
+     * A value that is read when a snapshot is taken.
+     */
+    public interface Gauge {
+	/**
+	 * Return the current value.
+	 *
+	 * @return	the current value.
+	 */
+	public long value();
+    }
+
+    /**
+     * A distribution of values, usually durations in ticks. Bucket <i>i</i>
+     * counts values less than <tt>2<sup>i</sup></tt> and at least
+     * <tt>2<sup>i-1</sup></tt>; bucket 0 counts zeros. Must only be updated
+     * by Nachos threads.
+     */
+    public static final class Histogram {
+	private Histogram() {
+	}
+
+	/**
+	 * Add a value to the distribution.
+	 *
+	 * @param	value	the value to record. Must not be negative.
+	 */
+	public void record(long value) {
+	    int bucket = 64 - Long.numberOfLeadingZeros(value);
+	    buckets[bucket]++;
+
+	    count++;
+	    sum += value;
+	    if (value > max)
+		max = value;
+	}
+
+	/** Return the number of values recorded. */
+	public long getCount() {
+	    return count;
+	}
+
+	/** Return the sum of the values recorded. */
+	public long getSum() {
+	    return sum;
+	}
+
+	/** Return the largest value recorded. */
+	public long getMax() {
+	    return max;
+	}
+
+	/**
+	 * Return a copy of the bucket counts.
+	 *
+	 * @return	the number of values in each bucket.
+	 */
+	public long[] getBuckets() {
+	    long[] result = new long[buckets.length];
+	    System.arraycopy(buckets, 0, result, 0, buckets.length);
+	    return result;
+	}
+
+	/**
+	 * Return an upper bound on the given percentile: the upper end of the
+	 * bucket that holds it.
+	 *
+	 * @param	percent	the percentile, from 0 to 100.
+	 * @return	a value no less than the requested percentile.
+	 */
+	public long getPercentile(double percent) {
+	    long rank = (long) Math.ceil(count * percent / 100);
+	    long seen = 0;
+	    for (int i=0; i<buckets.length; i++) {
+		seen += buckets[i];
+		if (seen >= rank && seen > 0)
+		    return (i == 0) ? 0 : Math.min(max, (1L<<i) - 1);
+	    }
+	    return max;
+	}
+
+	private long[] buckets = new long[65];
+	private long count = 0, sum = 0, max = 0;
+    }
+
+    /**
+     * Return the counter with the given name, registering it if necessary.
+     *
+     * @param	name	the name of the counter.
+     * @return	the counter.
+     */
+    public static synchronized Counter counter(String name) {
+	Object metric = registry.get(name);
+	if (metric == null)
+	    register(name, metric = new Counter());
+	return (Counter) metric;
+    }
+
+    /**
+     * Return the striped counter with the given name, registering it if
+     * necessary.
+     *
+     * @param	name	the name of the counter.
+     * @return	the counter.
+     */
+    public static synchronized StripedCounter stripedCounter(String name) {
+	Object metric = registry.get(name);
+	if (metric == null)
+	    register(name, metric = new StripedCounter());
+	return (StripedCounter) metric;
+    }
+
+    /**
+     * Return the histogram with the given name, registering it if
+     * necessary.
+     *
+     * @param	name	the name of the histogram.
+     * @return	the histogram.
+     */
+    public static synchronized Histogram histogram(String name) {
+	Object metric = registry.get(name);
+	if (metric == null)
+	    register(name, metric = new Histogram());
+	return (Histogram) metric;
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name.
+     *
+     * @param	name	the name of the gauge.
+     * @param	gauge	the gauge.
+     */
+    public static synchronized void gauge(String name, Gauge gauge) {
+	Object metric = registry.get(name);
+	Lib.assertTrue(metric == null || metric instanceof Gauge);
+	register(name, gauge);
+    }
+
+    private static void register(String name, Object metric) {
+	registry.put(name, metric);
+    }
+
+    /**
+     * Register the fields of <i>stats</i> as gauges, and start taking
+     * periodic snapshots if a snapshot file is configured.
+     */
+    static void initialize(Privilege privilege, final Stats stats) {
+	Metrics.privilege = privilege;
+
+	gauge("machine.ticks.total", new Gauge() {
+		public long value() { return stats.totalTicks; } });
+	gauge("machine.ticks.kernel", new Gauge() {
+		public long value() { return stats.kernelTicks; } });
+	gauge("machine.ticks.user", new Gauge() {
+		public long value() { return stats.userTicks; } });
+	gauge("disk.reads", new Gauge() {
+		public long value() { return stats.numDiskReads; } });
+	gauge("disk.writes", new Gauge() {
+		public long value() { return stats.numDiskWrites; } });
+	gauge("console.reads", new Gauge() {
+		public long value() { return stats.numConsoleReads; } });
+	gauge("console.writes", new Gauge() {
+		public long value() { return stats.numConsoleWrites; } });
+	gauge("vm.pageFaults", new Gauge() {
+		public long value() { return stats.numPageFaults; } });
+	gauge("vm.tlbMisses", new Gauge() {
+		public long value() { return stats.numTLBMisses; } });
+	gauge("network.packetsSent", new Gauge() {
+		public long value() { return stats.numPacketsSent; } });
+	gauge("network.packetsReceived", new Gauge() {
+		public long value() { return stats.numPacketsReceived; } });
+	gauge("threads.deadlineMisses", new Gauge() {
+		public long value() { return stats.numDeadlineMisses; } });
+
+	snapshotFile = Config.getString("Metrics.snapshotFile");
+	if (snapshotFile == null)
+	    return;
+
+	csv = snapshotFile.endsWith(".csv");
+	snapshotInterval = Config.getInteger("Metrics.snapshotInterval", 10000);
+	Lib.assertTrue(snapshotInterval > 0);
+
+	snapshotHandler = new Runnable() {
+		public void run() {
+		    snapshot();
+		    Metrics.privilege.interrupt.schedule(snapshotInterval,
+							 "metrics",
+							 snapshotHandler);
+		}
+	    };
+	privilege.interrupt.schedule(snapshotInterval, "metrics",
+				     snapshotHandler);
+
+	Machine.addHaltHandler(new Runnable() {
+		public void run() {
+		    snapshot();
+		    Metrics.privilege.doPrivileged(new Runnable() {
+			    public void run() { close(); }
+			});
+		}
+	    });
+    }
+
+    /**
+     * Append a snapshot of every metric to the snapshot file, if there is
+     * one.
+     */
+    public static void snapshot() {
+	if (snapshotFile == null)
+	    return;
+
+	ArrayList<String> names = new ArrayList<String>();
+	ArrayList<Long> values = new ArrayList<Long>();
+
+	names.add("time");
+	values.add(Machine.timer().getTime());
+
+	synchronized (Metrics.class) {
+	    for (Iterator<String> i=registry.keySet().iterator(); i.hasNext(); ) {
+		String name = i.next();
+		Object metric = registry.get(name);
+
+		if (metric instanceof Counter) {
+		    names.add(name);
+		    values.add(((Counter) metric).get());
+		}
+		else if (metric instanceof StripedCounter) {
+		    names.add(name);
+		    values.add(((StripedCounter) metric).get());
+		}
+		else if (metric instanceof Gauge) {
+		    names.add(name);
+		    values.add(((Gauge) metric).value());
+		}
+		else {
+		    Histogram h = (Histogram) metric;
+		    String[] fields = { "count", "sum", "max", "p50", "p99" };
+		    long[] stats = { h.getCount(), h.getSum(), h.getMax(),
+				     h.getPercentile(50), h.getPercentile(99) };
+		    for (int j=0; j<fields.length; j++) {
+			names.add(name + "." + fields[j]);
+			values.add(stats[j]);
+		    }
+		}
+	    }
+	}
+
+	final StringBuffer out = new StringBuffer();
+	if (csv) {
+	    // start a new header whenever the set of metrics changes
+	    if (!names.equals(csvHeader)) {
+		csvHeader = names;
+		appendJoined(out, names);
+	    }
+	    appendJoined(out, values);
+	}
+	else {
+	    out.append("{");
+	    for (int i=0; i<names.size(); i++) {
+		out.append((i == 0 ? "\"" : ", \"") + names.get(i) + "\": "
+			   + values.get(i));
+	    }
+	    out.append("}\n");
+	}
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() { append(out.toString()); }
+	    });
+    }
+
+    private static void appendJoined(StringBuffer out, ArrayList<?> items) {
+	for (int i=0; i<items.size(); i++) {
+	    if (i > 0)
+		out.append(",");
+	    out.append(items.get(i));
+	}
+	out.append("\n");
+    }
+
+    /**
+     * Append to the snapshot file, opening it the first time. The file stays
+     * open, and buffered, until <tt>close()</tt> is called at halt.
+     */
+    private static void append(String text) {
+	if (writer == null) {
+	    try {
+		writer = new PrintWriter(new BufferedWriter(
+					     new FileWriter(snapshotFile)));
+	    }
+	    catch (IOException e) {
+		System.out.println("Metrics: cannot write " + snapshotFile);
+		snapshotFile = null;
+		return;
+	    }
+	}
+
+	writer.print(text);
+    }
+
+    /**
+     * Flush and close the snapshot file. No more snapshots are taken.
+     */
+    private static void close() {
+	if (writer != null) {
+	    writer.close();
+	    if (writer.checkError())
+		System.out.println("Metrics: cannot write " + snapshotFile);
+	    writer = null;
+	}
+
+	snapshotFile = null;
+    }
+
+    private static LinkedHashMap<String,Object> registry =
+	new LinkedHashMap<String,Object>();
+
+    private static Privilege privilege;
+    private static String snapshotFile = null;
+    private static boolean csv;
+    private static PrintWriter writer = null;
+    private static ArrayList<String> csvHeader = null;
+    private static int snapshotInterval;
+    private static Runnable snapshotHandler;
+}
@@ -169,6 +169,7 @@ public class NetworkLink {
 		    incomingPacket = new Packet(incomingBytes);
 
 		    privilege.stats.numPacketsReceived++;
+		    TimelineTrace.instant("network", "packet received");
 		}
 		catch (MalformedPacketException e) {
 		}
@@ -228,6 +229,9 @@ public class NetworkLink {
 		packetBytes = new byte[dp.getLength()];
 
 		System.arraycopy(buffer,0, packetBytes,0, packetBytes.length);
+
+		// runs on the receive thread, not a Nachos thread
+		bytesReceived.add(packetBytes.length);
 	    }
 	    catch (IOException e) {
 		return;
@@ -272,6 +276,7 @@ public class NetworkLink {
 					   localHost, portBase+p.dstLink));
 
 	    privilege.stats.numPacketsSent++;
+	    TimelineTrace.instant("network", "packet sent");
 	}
 	catch (IOException e) {
 	}
@@ -321,6 +326,9 @@ public class NetworkLink {
     private byte linkAddress;
     private double reliability;
 
+    private static Metrics.StripedCounter bytesReceived =
+	Metrics.stripedCounter("network.bytesReceived");
+
     private byte[] incomingBytes = null;
     private Packet incomingPacket = null;
     private Packet outgoingPacket = null;
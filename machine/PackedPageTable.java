@@ -0,0 +1,212 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+/**
+ * A page table stored as one <tt>int</tt> per virtual page, instead of one
+ * <tt>TranslationEntry</tt> object per page. Each entry holds the physical
+ * page number in its upper bits and the valid, read-only, used and dirty bits
+ * in its lowest four bits.
+ *
+ * <p>
+ * A packed table is installed with <tt>Processor.setPageTable()</tt> like an
+ * array of translation entries, and the processor translates from it
+ * directly. Code that still works with <tt>TranslationEntry</tt> objects can
+ * use <tt>getEntry()</tt> and <tt>setEntry()</tt>, which copy to and from an
+ * entry.
+ */
+public final class PackedPageTable {
+    /**
+     * Allocate a new page table, with every page invalid.
+     *
+     * @param	numPages	the number of virtual pages in the table.
+     */
+    public PackedPageTable(int numPages) {
+	Lib.assertTrue(numPages >= 0);
+
+	entries = new int[numPages];
+    }
+
+    /**
+     * Return the number of virtual pages in this table.
+     *
+     * @return	the number of virtual pages.
+     */
+    public int getNumPages() {
+	return entries.length;
+    }
+
+    /**
+     * Map a virtual page to a physical page. The page becomes valid, and its
+     * used and dirty bits are cleared.
+     *
+     * @param	vpn		the virtual page number.
+     * @param	ppn		the physical page number.
+     * @param	readOnly	<tt>true</tt> if the page may not be written.
+     */
+    public void map(int vpn, int ppn, boolean readOnly) {
+	Lib.assertTrue(ppn >= 0 && ppn <= maxPPN);
+
+	entries[vpn] = (ppn << ppnShift) | validBit | (readOnly ? readOnlyBit : 0);
+    }
+
+    /**
+     * Make a virtual page invalid.
+     *
+     * @param	vpn	the virtual page number.
+     */
+    public void unmap(int vpn) {
+	entries[vpn] &= ~validBit;
+    }
+
+    /**
+     * Return true if a virtual page is valid.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the page's valid bit, or <tt>false</tt> if <i>vpn</i> is out of
+     *		range.
+     */
+    public boolean isValid(int vpn) {
+	return vpn >= 0 && vpn < entries.length && (entries[vpn] & validBit) != 0;
+    }
+
+    /**
+     * Return the physical page a virtual page is mapped to.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the physical page number.
+     */
+    public int getPPN(int vpn) {
+	return entries[vpn] >>> ppnShift;
+    }
+
+    /**
+     * Return true if a virtual page is read-only.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the page's read-only bit.
+     */
+    public boolean isReadOnly(int vpn) {
+	return (entries[vpn] & readOnlyBit) != 0;
+    }
+
+    /**
+     * Set or clear the read-only bit of a virtual page.
+     *
+     * @param	vpn		the virtual page number.
+     * @param	readOnly	the new read-only bit.
+     */
+    public void setReadOnly(int vpn, boolean readOnly) {
+	if (readOnly)
+	    entries[vpn] |= readOnlyBit;
+	else
+	    entries[vpn] &= ~readOnlyBit;
+    }
+
+    /**
+     * Return true if a virtual page has been read or written since its used
+     * bit was last cleared.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the page's used bit.
+     */
+    public boolean isUsed(int vpn) {
+	return (entries[vpn] & usedBit) != 0;
+    }
+
+    /**
+     * Clear the used bit of a virtual page.
+     *
+     * @param	vpn	the virtual page number.
+     */
+    public void clearUsed(int vpn) {
+	entries[vpn] &= ~usedBit;
+    }
+
+    /**
+     * Return true if a virtual page has been written since its dirty bit was
+     * last cleared.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the page's dirty bit.
+     */
+    public boolean isDirty(int vpn) {
+	return (entries[vpn] & dirtyBit) != 0;
+    }
+
+    /**
+     * Clear the dirty bit of a virtual page.
+     *
+     * @param	vpn	the virtual page number.
+     */
+    public void clearDirty(int vpn) {
+	entries[vpn] &= ~dirtyBit;
+    }
+
+    /**
+     * Translate a virtual page the way the processor does: check that it is
+     * valid, and writable if <i>writing</i>, and set its used bit, and its
+     * dirty bit if <i>writing</i>.
+     *
+     * @param	vpn	the virtual page number.
+     * @param	writing	<tt>true</tt> if the page is being written.
+     * @return	the physical page number, or -1 if the page is invalid, or is
+     *		read-only and <i>writing</i> is set.
+     */
+    public int translate(int vpn, boolean writing) {
+	if (vpn < 0 || vpn >= entries.length)
+	    return -1;
+
+	int entry = entries[vpn];
+	if ((entry & validBit) == 0 || (writing && (entry & readOnlyBit) != 0))
+	    return -1;
+
+	entries[vpn] = entry | usedBit | (writing ? dirtyBit : 0);
+	return entry >>> ppnShift;
+    }
+
+    /**
+     * Return a copy of a virtual page's entry as a <tt>TranslationEntry</tt>.
+     * Changing the copy does not change this table; use <tt>setEntry()</tt>
+     * for that.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	a new translation entry with the page's state.
+     */
+    public TranslationEntry getEntry(int vpn) {
+	int entry = entries[vpn];
+	return new TranslationEntry(vpn, entry >>> ppnShift,
+				    (entry & validBit) != 0,
+				    (entry & readOnlyBit) != 0,
+				    (entry & usedBit) != 0,
+				    (entry & dirtyBit) != 0);
+    }
+
+    /**
+     * Set a virtual page's entry from a <tt>TranslationEntry</tt>. The
+     * entry's <tt>vpn</tt> field is ignored.
+     *
+     * @param	vpn	the virtual page number.
+     * @param	entry	the new state of the page.
+     */
+    public void setEntry(int vpn, TranslationEntry entry) {
+	Lib.assertTrue(entry.ppn >= 0 && entry.ppn <= maxPPN);
+
+	entries[vpn] = (entry.ppn << ppnShift)
+	    | (entry.valid ? validBit : 0)
+	    | (entry.readOnly ? readOnlyBit : 0)
+	    | (entry.used ? usedBit : 0)
+	    | (entry.dirty ? dirtyBit : 0);
+    }
+
+    /** The entries, read and updated directly by the processor. */
+    int[] entries;
+
+    static final int validBit = 0x1;
+    static final int readOnlyBit = 0x2;
+    static final int usedBit = 0x4;
+    static final int dirtyBit = 0x8;
+    static final int ppnShift = 4;
+
+    private static final int maxPPN = (1 << (32-ppnShift)) - 1;
+}
@@ -156,7 +156,8 @@ public final class Processor {
     /**
      * Get the current page table, set by the last call to setPageTable().
      *
-     * @return	the current page table.
+     * @return	the current page table, or <tt>null</tt> if the current page
+     *		table is a <tt>PackedPageTable</tt>.
      */
     public TranslationEntry[] getPageTable() {
 	Lib.assertTrue(!usingTLB);
@@ -164,6 +165,19 @@ public final class Processor {
 	return translations;
     }
 
+    /**
+     * Get the current packed page table, set by the last call to
+     * setPageTable().
+     *
+     * @return	the current packed page table, or <tt>null</tt> if the
+     *		current page table is an array of translation entries.
+     */
+    public PackedPageTable getPackedPageTable() {
+	Lib.assertTrue(!usingTLB);
+
+	return packedTable;
+    }
+
     /**
      * Set the page table pointer. All further address translations will use
      * the specified page table. The size of the current address space will be
@@ -175,6 +189,21 @@ public final class Processor {
 	Lib.assertTrue(!usingTLB);
 
 	this.translations = pageTable;
+	this.packedTable = null;
+    }
+
+    /**
+     * Set the page table pointer to a packed page table. All further address
+     * translations will use the specified page table. The size of the current
+     * address space is the number of pages in the table.
+     *
+     * @param	pageTable	the page table to use.
+     */
+    public void setPageTable(PackedPageTable pageTable) {
+	Lib.assertTrue(!usingTLB);
+
+	this.packedTable = pageTable;
+	this.translations = null;
     }
 
     /**
@@ -308,17 +337,18 @@ public final class Processor {
 	int vpn = pageFromAddress(vaddr);
 	int offset = offsetFromAddress(vaddr);
 
+	// a packed page table is translated without translation entries
+	if (packedTable != null)
+	    return translatePacked(vaddr, vpn, offset, writing);
+
 	TranslationEntry entry = null;
 
 	// if not using a TLB, then the vpn is an index into the table
 	if (!usingTLB) {
 	    if (translations == null || vpn >= translations.length ||
 		translations[vpn] == null ||
-		!translations[vpn].valid) {
-		privilege.stats.numPageFaults++;
-		Lib.debug(dbgProcessor, "\t\tpage fault");
-		throw new MipsException(exceptionPageFault, vaddr);
-	    }
+		!translations[vpn].valid)
+		throw pageFault(vaddr);
 
 	    entry = translations[vpn];
 	}
@@ -332,6 +362,7 @@ public final class Processor {
 	    }
 	    if (entry == null) {
 		privilege.stats.numTLBMisses++;
+		TimelineTrace.instant("paging", "TLB miss");
 		Lib.debug(dbgProcessor, "\t\tTLB miss");
 		throw new MipsException(exceptionTLBMiss, vaddr);
 	    }
@@ -362,6 +393,53 @@ public final class Processor {
 	return paddr;
     }
 
+    /**
+     * Translate a virtual address through the packed page table. Same as the
+     * page table case of <tt>translate()</tt>.
+     */
+    private int translatePacked(int vaddr, int vpn, int offset,
+				boolean writing) throws MipsException {
+	int[] entries = packedTable.entries;
+	if (vpn >= entries.length ||
+	    (entries[vpn] & PackedPageTable.validBit) == 0)
+	    throw pageFault(vaddr);
+
+	int bits = entries[vpn];
+
+	// check if trying to write a read-only page
+	if ((bits & PackedPageTable.readOnlyBit) != 0 && writing) {
+	    Lib.debug(dbgProcessor, "\t\tread-only exception");
+	    throw new MipsException(exceptionReadOnly, vaddr);
+	}
+
+	// check if physical page number is out of range
+	int ppn = bits >>> PackedPageTable.ppnShift;
+	if (ppn >= numPhysPages) {
+	    Lib.debug(dbgProcessor, "\t\tbad ppn");
+	    throw new MipsException(exceptionBusError, vaddr);
+	}
+
+	// set used and dirty bits as appropriate
+	entries[vpn] = bits | PackedPageTable.usedBit
+	    | (writing ? PackedPageTable.dirtyBit : 0);
+
+	int paddr = (ppn*pageSize) + offset;
+
+	if (Lib.test(dbgProcessor))
+	    System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
+	return paddr;
+    }
+
+    /**
+     * Count a page fault, and return the exception to raise for it.
+     */
+    private MipsException pageFault(int vaddr) {
+	privilege.stats.numPageFaults++;
+	TimelineTrace.instant("paging", "page fault");
+	Lib.debug(dbgProcessor, "\t\tpage fault");
+	return new MipsException(exceptionPageFault, vaddr);
+    }
+
     /**
      * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
      * and return the result.
@@ -546,6 +624,7 @@ public final class Processor {
      * depending on whether there is a TLB.
      */
     private TranslationEntry[] translations;
+    private PackedPageTable packedTable = null;
 
     /** Size of a page, in bytes. */
     public static final int pageSize = 0x400;
@@ -600,7 +679,9 @@ public final class Processor {
 	    if (!Machine.autoGrader().exceptionHandler(privilege))
 		return;
 	    
+	    FlightEvents.Trap event = FlightEvents.beginTrap(cause, badVAddr);
 	    exceptionHandler.run();
+	    FlightEvents.end(event);
 	}
 
 	private boolean hasBadVAddr = false;
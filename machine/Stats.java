@@ -29,6 +29,7 @@ public final class Stats {
 			   + ", TLB misses " + numTLBMisses);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
+	System.out.println("Real-time: deadline misses " + numDeadlineMisses);
     }
 
     /**
@@ -61,6 +62,8 @@ public final class Stats {
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
     public int numPacketsReceived = 0;
+    /** The total number of real-time jobs that missed their deadline. */
+    public int numDeadlineMisses = 0;
 
     /**
      * The amount to advance simulated time after each user instructions is
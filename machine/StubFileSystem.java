@@ -29,7 +29,15 @@ public class StubFileSystem implements FileSystem {
     public OpenFile open(String name, boolean truncate) {
 	if (!checkName(name))
 	    return null;
-	
+
+	FlightEvents.FileOperation event =
+	    FlightEvents.beginFileOperation("open", name, 0);
+	OpenFile file = openFile(name, truncate);
+	FlightEvents.end(event, (file != null) ? 0 : -1);
+	return file;
+    }
+
+    private OpenFile openFile(String name, boolean truncate) {
 	delay();
 	    
 	try {
@@ -44,10 +52,15 @@ public class StubFileSystem implements FileSystem {
 	if (!checkName(name))
 	    return false;
 
+	FlightEvents.FileOperation event =
+	    FlightEvents.beginFileOperation("remove", name, 0);
+
 	delay();
 
 	FileRemover fr = new FileRemover(new File(directory, name));
 	privilege.doPrivileged(fr);
+
+	FlightEvents.end(event, fr.successful ? 0 : -1);
 	return fr.successful;
     }
 
@@ -107,6 +120,14 @@ public class StubFileSystem implements FileSystem {
 	}
 
 	public int read(int pos, byte[] buf, int offset, int length) {
+	    FlightEvents.FileOperation event =
+		FlightEvents.beginFileOperation("read", getName(), length);
+	    int result = readFile(pos, buf, offset, length);
+	    FlightEvents.end(event, result);
+	    return result;
+	}
+
+	private int readFile(int pos, byte[] buf, int offset, int length) {
 	    if (!open)
 		return -1;
 	    
@@ -122,6 +143,14 @@ public class StubFileSystem implements FileSystem {
 	}
 	
 	public int write(int pos, byte[] buf, int offset, int length) {
+	    FlightEvents.FileOperation event =
+		FlightEvents.beginFileOperation("write", getName(), length);
+	    int result = writeFile(pos, buf, offset, length);
+	    FlightEvents.end(event, result);
+	    return result;
+	}
+
+	private int writeFile(int pos, byte[] buf, int offset, int length) {
 	    if (!open)
 		return -1;
 	    
@@ -157,6 +157,8 @@ public final class TCB {
 
 	TCB previous = currentTCB;
 	previous.running = false;
+
+	FlightEvents.contextSwitch(previous.nachosThread, nachosThread);
 	
 	this.interrupt();
 	previous.yield();
@@ -305,6 +307,16 @@ public final class TCB {
 	notify();
     }
 
+    /**
+     * Return the Nachos thread associated with this TCB.
+     *
+     * @return	the associated <tt>KThread</tt>, or <tt>null</tt> if there
+     *		is none yet.
+     */
+    KThread getNachosThread() {
+	return nachosThread;
+    }
+
     private void associateThread(KThread thread) {
 	// make sure AutoGrader.runningThread() gets called only once per
 	// context switch
@@ -0,0 +1,216 @@
+// PART OF THE MACHINE SIMULATION. DO NOT CHANGE.
+
+package nachos.machine;
+
+import nachos.security.*;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+
+/**
+ * Writes a timeline of the run in the Chrome trace-event format, which can be
+ * loaded into <tt>chrome://tracing</tt> or the Perfetto UI. Timestamps are
+ * simulated ticks, which the viewers display as microseconds.
+ *
+ * <p>
+ * The timeline has two processes:
+ *
+ * <ul>
+ * <li><i>Nachos threads</i>, with one track per <tt>KThread</tt> showing when
+ * the thread was running, ready or blocked.
+ * <li><i>Machine</i>, with instant events for interrupts, page faults, TLB
+ * misses and network packets, and counter tracks that sample the
+ * <tt>Stats</tt> fields every <tt>Machine.timelineCounterInterval</tt> ticks
+ * (1000 by default).
+ * </ul>
+ *
+ * <p>
+ * The timeline is enabled by setting <tt>Machine.timelineTrace</tt> to the
+ * name of the file to write. Events are written as they happen, and the file
+ * is completed when the machine halts.
+ */
+public final class TimelineTrace {
+    /**
+     * Prevent instantiation.
+     */
+    private TimelineTrace() {
+    }
+
+    /**
+     * Open the timeline file, if one is configured. Called while the machine
+     * is starting, so the file can be opened without privilege.
+     */
+    static void initialize(Privilege privilege, final Stats stats) {
+	String fileName = Config.getString("Machine.timelineTrace");
+	if (fileName == null)
+	    return;
+
+	try {
+	    out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+	}
+	catch (IOException e) {
+	    System.out.println("TimelineTrace: cannot write " + fileName);
+	    return;
+	}
+
+	TimelineTrace.stats = stats;
+	TimelineTrace.privilege = privilege;
+
+	out.print("{\"traceEvents\": [\n");
+	out.print("{\"ph\": \"M\", \"name\": \"process_name\", \"pid\": "
+		  + machinePID + ", \"tid\": 0, \"args\": {\"name\": \"Machine\"}}");
+	out.print(",\n{\"ph\": \"M\", \"name\": \"process_name\", \"pid\": "
+		  + threadsPID + ", \"tid\": 0, "
+		  + "\"args\": {\"name\": \"Nachos threads\"}}");
+
+	counterInterval = Config.getInteger("Machine.timelineCounterInterval",
+					    1000);
+	Lib.assertTrue(counterInterval > 0);
+
+	counterHandler = new Runnable() {
+		public void run() {
+		    sampleCounters();
+		    TimelineTrace.privilege.interrupt.schedule(counterInterval,
+							       "timeline",
+							       counterHandler);
+		}
+	    };
+	privilege.interrupt.schedule(counterInterval, "timeline",
+				     counterHandler);
+
+	Machine.addHaltHandler(new Runnable() {
+		public void run() { close(); }
+	    });
+    }
+
+    /**
+     * Return true if a timeline is being written.
+     *
+     * @return	<tt>true</tt> if the timeline is enabled.
+     */
+    public static boolean enabled() {
+	return out != null;
+    }
+
+    /**
+     * Record that a thread changed state. The thread's previous span ends
+     * now, and a span named <i>state</i> starts.
+     *
+     * @param	tid	a number identifying the thread.
+     * @param	name	the name of the thread, used to label its track.
+     * @param	state	the new state of the thread, or <tt>null</tt> if the
+     *			thread has finished.
+     */
+    public static void threadState(int tid, String name, String state) {
+	if (out == null)
+	    return;
+
+	long now = Machine.timer().getTime();
+
+	Span span = spans.get(tid);
+	if (span == null) {
+	    span = new Span();
+	    spans.put(tid, span);
+	    event("{\"ph\": \"M\", \"name\": \"thread_name\", \"pid\": "
+		  + threadsPID + ", \"tid\": " + tid
+		  + ", \"args\": {\"name\": \"" + escape(name) + "\"}}");
+	}
+	else if (span.state != null) {
+	    event("{\"ph\": \"X\", \"name\": \"" + span.state
+		  + "\", \"cat\": \"thread\", \"ts\": " + span.start
+		  + ", \"dur\": " + (now - span.start)
+		  + ", \"pid\": " + threadsPID + ", \"tid\": " + tid + "}");
+	}
+
+	span.state = state;
+	span.start = now;
+
+	if (state == null)
+	    spans.remove(tid);
+    }
+
+    /**
+     * Record an instant event on the machine's track.
+     *
+     * @param	category	the kind of event, such as <tt>interrupt</tt>.
+     * @param	name		the name of the event.
+     */
+    public static void instant(String category, String name) {
+	if (out == null)
+	    return;
+
+	event("{\"ph\": \"i\", \"s\": \"p\", \"name\": \"" + escape(name)
+	      + "\", \"cat\": \"" + category + "\", \"ts\": "
+	      + Machine.timer().getTime() + ", \"pid\": " + machinePID
+	      + ", \"tid\": 0}");
+    }
+
+    private static void sampleCounters() {
+	counter("ticks", "kernel", stats.kernelTicks, "user", stats.userTicks);
+	counter("disk", "reads", stats.numDiskReads,
+		"writes", stats.numDiskWrites);
+	counter("console", "reads", stats.numConsoleReads,
+		"writes", stats.numConsoleWrites);
+	counter("paging", "page faults", stats.numPageFaults,
+		"TLB misses", stats.numTLBMisses);
+	counter("network", "received", stats.numPacketsReceived,
+		"sent", stats.numPacketsSent);
+	counter("real-time", "deadline misses", stats.numDeadlineMisses,
+		null, 0);
+    }
+
+    private static void counter(String name, String series1, long value1,
+				String series2, long value2) {
+	String args = "\"" + series1 + "\": " + value1;
+	if (series2 != null)
+	    args += ", \"" + series2 + "\": " + value2;
+
+	event("{\"ph\": \"C\", \"name\": \"" + name + "\", \"ts\": "
+	      + stats.totalTicks + ", \"pid\": " + machinePID
+	      + ", \"args\": {" + args + "}}");
+    }
+
+    private static void event(String json) {
+	out.print(",\n");
+	out.print(json);
+    }
+
+    /**
+     * End the spans of threads that are still alive, and complete the file.
+     */
+    private static void close() {
+	sampleCounters();
+
+	Integer[] tids = spans.keySet().toArray(new Integer[0]);
+	for (int i=0; i<tids.length; i++)
+	    threadState(tids[i], null, null);
+
+	out.print("\n]}\n");
+	out.close();
+	out = null;
+    }
+
+    private static String escape(String s) {
+	return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static class Span {
+	String state = null;
+	long start;
+    }
+
+    private static PrintWriter out = null;
+    private static Privilege privilege;
+    private static Stats stats;
+
+    private static HashMap<Integer,Span> spans = new HashMap<Integer,Span>();
+
+    private static int counterInterval;
+    private static Runnable counterHandler;
+
+    private static final int machinePID = 0;
+    private static final int threadsPID = 1;
+}
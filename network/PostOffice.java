@@ -10,25 +10,33 @@ import nachos.threads.*;
  * corrupted, but they might get lost.
  *
  * <p>
- * The post office uses a "postal worker" thread to wait for messages to arrive
- * from the network and to place them in the appropriate queues. This cannot
- * be done in the receive interrupt handler because each queue (implemented
- * with a <tt>SynchList</tt>) is protected by a lock.
+ * When a message arrives, the receive interrupt handler schedules its delivery
+ * on the kernel's <tt>WorkQueue</tt>, and a worker thread places it in the
+ * appropriate queue. This cannot be done in the receive interrupt handler
+ * because each queue (implemented with a <tt>BoundedSynchList</tt>) is
+ * protected by a lock.
+ *
+ * <p>
+ * Each queue holds at most <tt>PostOffice.queueCapacity</tt> messages (64 by
+ * default). A message for a port whose queue is full is dropped, just as the
+ * network may drop it, so a flood on one port cannot hold up the others or
+ * use up memory.
  */
 public class PostOffice {
     /**
-     * Allocate a new post office, using an array of <tt>SynchList</tt>s.
-     * Register the interrupt handlers with the network hardware and start the
-     * "postal worker" thread.
+     * Allocate a new post office, using an array of
+     * <tt>BoundedSynchList</tt>s.
+     * Register the interrupt handlers with the network hardware.
      */
     public PostOffice() {
-	messageReceived = new Semaphore(0);
 	messageSent = new Semaphore(0);
 	sendLock = new Lock();
 
-	queues = new SynchList[MailMessage.portLimit];
+	int capacity = Config.getInteger("PostOffice.queueCapacity", 64);
+
+	queues = new BoundedSynchList[MailMessage.portLimit];
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new BoundedSynchList(capacity);
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -39,11 +47,10 @@ public class PostOffice {
 	Machine.networkLink().setInterruptHandlers(receiveHandler,
 						   sendHandler);
 
-	KThread t = new KThread(new Runnable() {
+	delivery = new Runnable() {
 		public void run() { postalDelivery(); }
-	    });
-
-	t.fork();
+	    };
+	workQueue = ThreadedKernel.workQueue();
     }
 
     /**
@@ -56,7 +63,7 @@ public class PostOffice {
     public MailMessage receive(int port) {
 	Lib.assertTrue(port >= 0 && port < queues.length);
 
-	Lib.debug(dbgNet, "waiting for mail on port " + port);
+	Lib.debug(dbgNet, "waiting for mail on port %s", port);
 
 	MailMessage mail = (MailMessage) queues[port].removeFirst();
 
@@ -67,38 +74,41 @@ public class PostOffice {
     }
 
     /**
-     * Wait for incoming messages, and then put them in the correct mailbox.
+     * Dequeue the message that has arrived, and put it in the correct
+     * mailbox. Run by a kernel worker thread.
      */
     private void postalDelivery() {
-	while (true) {
-	    messageReceived.P();
-
-	    Packet p = Machine.networkLink().receive();
+	Packet p = Machine.networkLink().receive();
 
-	    MailMessage mail;
+	MailMessage mail;
 
-	    try {
-		mail = new MailMessage(p);
-	    }
-	    catch (MalformedPacketException e) {
-		continue;
-	    }
-
-	    if (Lib.test(dbgNet))
-		System.out.println("delivering mail to port " + mail.dstPort
-				   + ": " + mail);
+	try {
+	    mail = new MailMessage(p);
+	}
+	catch (MalformedPacketException e) {
+	    return;
+	}
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	if (Lib.test(dbgNet))
+	    System.out.println("delivering mail to port " + mail.dstPort
+			       + ": " + mail);
+
+	// atomically add message to the mailbox and wake a waiting thread,
+	// dropping it if the mailbox is full
+	if (!queues[mail.dstPort].offer(mail)) {
+	    mailDropped.increment();
+	    Lib.debug(dbgNet, "mailbox full, dropped mail to port %s",
+		      mail.dstPort);
 	}
     }
 
     /**
      * Called when a packet has arrived and can be dequeued from the network
-     * link.
+     * link. The link holds only one packet until it is dequeued, so at most
+     * one delivery is pending at a time.
      */
     private void receiveInterrupt() {
-	messageReceived.V();
+	workQueue.schedule(delivery);
     }
 
     /**
@@ -125,10 +135,13 @@ public class PostOffice {
 	messageSent.V();
     }
 
-    private SynchList[] queues;
-    private Semaphore messageReceived;	// V'd when a message can be dequeued
+    private BoundedSynchList[] queues;
+    private WorkQueue workQueue;
+    private Runnable delivery;		// delivers the message that arrived
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
 
     private static final char dbgNet = 'n';
+    private static Metrics.Counter mailDropped =
+	Metrics.counter("network.mailDropped");
 }
@@ -67,3 +67,10 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(batch, syscallBatch)
+	SYSCALLSTUB(iosetup, syscallIOSetup)
+	SYSCALLSTUB(ioenter, syscallIOEnter)
+	SYSCALLSTUB(munmap, syscallMunmap)
+	SYSCALLSTUB(fork, syscallFork)
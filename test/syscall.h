@@ -25,6 +25,13 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallReadv		13
+#define syscallWritev		14
+#define syscallBatch		15
+#define syscallIOSetup		16
+#define syscallIOEnter		17
+#define syscallMunmap		18
+#define syscallFork		19
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -68,6 +75,18 @@ void halt();
  */
 void exit(int status);
 
+/**
+ * Create a new process that is a copy of this one, running the same program,
+ * and return in both. Memory is shared until either process writes a page,
+ * which is then copied for the writer, so a short-lived child copies only the
+ * pages it writes. The child starts with only the standard input and output
+ * open, and does not inherit memory maps.
+ *
+ * Returns the process ID of the child to the parent, 0 to the child, or -1 to
+ * the parent if an error occurred.
+ */
+int fork();
+
 /**
  * Execute the program stored in the specified file, with the specified
  * arguments, in a new child process. The child process has a new unique
@@ -181,6 +200,128 @@ int read(int fileDescriptor, void *buffer, int count);
  */
 int write(int fileDescriptor, void *buffer, int count);
 
+/**
+ * One buffer of a scatter/gather transfer: length bytes starting at base.
+ */
+struct iovec {
+    void *base;
+    int length;
+};
+
+/**
+ * Read from fileDescriptor into each of the iovcnt buffers described by iov,
+ * in order, as if by successive calls to read(), filling each buffer before
+ * starting the next. At most 64 buffers may be given.
+ *
+ * Returns the total number of bytes read, which is smaller than the total
+ * length of the buffers if a read() would have returned fewer bytes than
+ * requested. Returns -1 if an error occurred.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Write each of the iovcnt buffers described by iov to fileDescriptor, in
+ * order, as if by successive calls to write(). At most 64 buffers may be
+ * given.
+ *
+ * Returns the total number of bytes written, or -1 if an error occurred.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * One system call of a batch: the syscall code, its arguments, and a slot for
+ * its return value.
+ */
+struct syscallRequest {
+    int syscall;
+    int args[4];
+    int result;
+};
+
+/**
+ * Perform count system calls, described by the requests array, with a single
+ * trap into the kernel. The requests are performed in order, and the return
+ * value of each is stored in its result field. A request may not itself be a
+ * batch() call; its result is set to -1. At most 64 requests may be given.
+ *
+ * Returns the number of requests performed, or -1 if the array could not be
+ * read or the results could not be stored.
+ */
+int batch(struct syscallRequest *requests, int count);
+
+/**
+ * The header of a pair of asynchronous I/O rings. The header is followed in
+ * memory by the submission ring, an array of entries struct ioSubmission,
+ * and then by the completion ring, an array of entries struct ioCompletion.
+ * IO_RING_SIZE(entries) is the size of the whole area.
+ *
+ * The indexes only ever increase; entry i of a ring is stored in slot
+ * i % entries. The process writes submissions and advances sqTail, and reads
+ * completions and advances cqHead. The kernel advances sqHead as it takes
+ * submissions, and cqTail as it posts completions.
+ */
+struct ioRing {
+    int sqHead;
+    int sqTail;
+    int cqHead;
+    int cqTail;
+};
+
+/* Operation codes for struct ioSubmission. */
+#define ioNop			0
+#define ioRead			1
+#define ioWrite			2
+
+/**
+ * An asynchronous operation: read or write length bytes between buffer and
+ * fileDescriptor, at the given position in the file, or at the current file
+ * position if position is -1. Operations at the current position on one
+ * file should not be in flight at the same time, since their order is not
+ * defined. userData is copied to the operation's completion.
+ */
+struct ioSubmission {
+    int opcode;
+    int fileDescriptor;
+    void *buffer;
+    int length;
+    int position;
+    int userData;
+};
+
+/**
+ * The result of an asynchronous operation: the userData of its submission,
+ * and the value read() or write() would have returned.
+ */
+struct ioCompletion {
+    int userData;
+    int result;
+};
+
+#define IO_RING_SIZE(entries)	(sizeof(struct ioRing) + (entries) * \
+				 (sizeof(struct ioSubmission) + \
+				  sizeof(struct ioCompletion)))
+
+/**
+ * Set up a pair of asynchronous I/O rings in the IO_RING_SIZE(entries) bytes
+ * starting at ring, which are cleared. entries must be a power of two, no
+ * larger than 256. A process can set up only one pair of rings.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int iosetup(struct ioRing *ring, int entries);
+
+/**
+ * Submit every submission added since the last call, as far as the completion
+ * ring has room for their results, and then wait until at least minComplete
+ * completions are waiting to be consumed, or no operation is in flight. The
+ * operations are performed by the kernel concurrently with the process and
+ * with each other, and their completions are posted without further system
+ * calls. Pass 0 for minComplete to return at once.
+ *
+ * Returns the number of submissions taken, or -1 if an error occurred.
+ */
+int ioenter(int minComplete);
+
 /**
  * Close a file descriptor, so that it no longer refers to any file or stream
  * and may be reused.
@@ -216,7 +357,9 @@ int unlink(char *name);
 
 /**
  * Map the file referenced by fileDescriptor into memory at address. The file
- * may be as large as 0x7FFFFFFF bytes.
+ * may be as large as 0x7FFFFFFF bytes. address must be page-aligned, and the
+ * map may not overlap the program or another map. Pages of the map are read
+ * from the file when they are first touched.
  * 
  * To maintain consistency, further calls to read() and write() on this file
  * descriptor will fail (returning -1) until the file descriptor is closed.
@@ -228,6 +371,15 @@ int unlink(char *name);
  */
 int mmap(int fileDescriptor, char *address);
 
+/**
+ * Remove the map at address, which must be the address passed to mmap(),
+ * writing its dirty pages back to the file. The file descriptor stays open,
+ * and can be read and written again.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int munmap(char *address);
+
 /**
  * Attempt to initiate a new connection to the specified port on the specified
  * remote host, and return a new file descriptor referring to the connection.
@@ -17,9 +17,10 @@ public class Alarm {
     public Alarm() {
         Lib.debug(dbgAlarm, "Creating Alarm" + Machine.timer().getTime());
         timeCreated = Machine.timer().getTime();
-        waitQueue = new ArrayList<KThread>();
-        timeQueue = new ArrayList<Long>();
-        queueLock = new Lock();
+        waitQueue = new PriorityQueue<Sleeper>();
+        Metrics.gauge("alarm.sleepers", new Metrics.Gauge() {
+                public long value() { return getSleeperCount(); }
+            });
         Machine.timer().setInterruptHandler(new Runnable() {
                 public void run() { timerInterrupt(); }
             });
@@ -30,28 +31,46 @@ public class Alarm {
      * periodically (approximately every 500 clock ticks). Causes the current
      * thread to yield, forcing a context switch if there is another thread
      * that should be run.
+     *
+     * <p>
+     * Sleeping threads are kept in a heap ordered by wake time, so only the
+     * threads whose wake time has passed are looked at.
      */
     public void timerInterrupt() {
-        Lib.debug(dbgAlarm,"In Interrupt Handler (time = "+Machine.timer().getTime()+")");
+        if (Lib.test(dbgAlarm))
+            Lib.debug(dbgAlarm,"In Interrupt Handler (time = "+Machine.timer().getTime()+")");
 
         //Disable interrupts
         boolean intStatus = Machine.interrupt().disable();
 
-        KThread thread;
-        //If there is a task that is waiting, restore it to ready status
-        for (int i = 0; i < waitQueue.size(); i++) {
-            if (Machine.timer().getTime() > timeQueue.get(i)) {
-                waitQueue.get(i).ready();
-                waitQueue.remove(i);
-                timeQueue.remove(i);
+        //Restore every task whose wake time has passed to ready status
+        long now = Machine.timer().getTime();
+        while (!waitQueue.isEmpty() && waitQueue.peek().wakeTime <= now) {
+            Sleeper sleeper = waitQueue.poll();
+
+            if (sleeper.cancelled) {
+                numCancelled--;
+            }
+            else if (sleeper.queue == null) {
+                sleeper.thread.ready();
+            }
+            //Timed wait: only wake the thread if it is still waiting
+            else if (sleeper.queue.remove(sleeper.thread)) {
+                sleeper.timedOut = true;
+                sleeper.thread.ready();
+            }
+            //Already given access through the queue but not yet run: the
+            //entry is gone, so waitOn() must not count it as cancelled
+            else {
+                sleeper.dequeued = true;
             }
         }
 
         //Restore interrupts
         Machine.interrupt().restore(intStatus);
 
-        //Current thread yields and context switches
-        KThread.yield();
+        //Current thread's time slice is over, so context switch
+        KThread.preempt();
 
     }
 
@@ -70,39 +89,132 @@ public class Alarm {
      * @see     nachos.machine.Timer#getTime()
      */
     public void waitUntil(long x) {
-        //Sets current thread as waitThread
-
         //Initializes wakeTime with x ticks
         long wakeTime = Machine.timer().getTime() + x;
 
         //Disable interrupts
         boolean intStatus = Machine.interrupt().disable();
-        queueLock.acquire();
 
         //Puts task to sleep for x ticks
-        waitQueue.add(KThread.currentThread());
-        Lib.debug(dbgAlarm, "Added new task size="+ waitQueue.size() + " timeCreated="+this.timeCreated);
-        timeQueue.add(wakeTime);
-        int i;
-
-        queueLock.release();
+        waitQueue.add(new Sleeper(wakeTime, KThread.currentThread()));
+        if (Lib.test(dbgAlarm))
+            Lib.debug(dbgAlarm, "Added new task size="+ waitQueue.size() + " timeCreated="+this.timeCreated);
 
-        KThread.sleep();
+        KThread.sleep(ThreadStats.blockAlarm);
 
         //Restores interrupts
         Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Put the current thread to sleep on <i>queue</i> for at most <i>x</i>
+     * ticks. The caller must have disabled interrupts and already called
+     * <tt>queue.waitForAccess()</tt> for the current thread. The thread
+     * wakes up either when it is returned by <tt>queue.nextThread()</tt> and
+     * readied, or during the first timer interrupt at least <i>x</i> ticks
+     * from now, in which case it is removed from <i>queue</i>.
+     *
+     * <p>
+     * If <i>x</i> is not positive, the thread is removed from the queue
+     * without sleeping.
+     *
+     * @param   queue   the queue the current thread is waiting in.
+     * @param   x       the maximum number of clock ticks to wait.
+     * @param   reason  why the thread is blocking, one of the
+     *                  <tt>ThreadStats.block<i>*</i></tt> constants.
+     * @return  <tt>true</tt> if the thread was given access through the
+     *          queue, or <tt>false</tt> if the wait timed out.
+     */
+    public boolean waitOn(ThreadQueue queue, long x, int reason) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        if (x <= 0)
+            return !queue.remove(KThread.currentThread());
+
+        Sleeper sleeper = new Sleeper(Machine.timer().getTime() + x,
+                                      KThread.currentThread());
+        sleeper.queue = queue;
+        waitQueue.add(sleeper);
+
+        KThread.sleep(reason);
+
+        if (sleeper.timedOut)
+            return false;
+
+        //Woken through the queue: the timer entry is dropped lazily
+        if (!sleeper.dequeued) {
+            sleeper.cancelled = true;
+            if (++numCancelled > waitQueue.size() / 2)
+                purgeCancelled();
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the number of threads waiting for the timer, not counting timed
+     * waits that were satisfied early.
+     *
+     * @return  the number of sleeping threads.
+     */
+    int getSleeperCount() {
+        return waitQueue.size() - numCancelled;
+    }
+
+    /**
+     * Rebuild the heap without cancelled timed waits, so that they cannot
+     * pile up when most timed waits are satisfied early.
+     */
+    private void purgeCancelled() {
+        PriorityQueue<Sleeper> live = new PriorityQueue<Sleeper>();
+        for (Sleeper sleeper : waitQueue) {
+            if (!sleeper.cancelled)
+                live.add(sleeper);
+        }
+
+        waitQueue = live;
+        numCancelled = 0;
+    }
+
     /**
      * Tests whether this module is working.
      */
     public static void selfTest() {
         AlarmTest.runTest();
+        AlarmTest.runTimedWaitTest();
     }
 
     private static final char dbgAlarm = 'a';
-    private List<KThread> waitQueue;
-    private List<Long> timeQueue;
-    private Lock queueLock;
+    private PriorityQueue<Sleeper> waitQueue;
+    private long numSleepers = 0;
+    private int numCancelled = 0;
     private long timeCreated;
+
+    /**
+     * A sleeping thread and the time at which it should be woken. Sleepers
+     * with the same wake time are woken in the order they went to sleep. For
+     * a timed wait, <tt>queue</tt> is the queue the thread is waiting in.
+     */
+    private class Sleeper implements Comparable<Sleeper> {
+        Sleeper(long wakeTime, KThread thread) {
+            this.wakeTime = wakeTime;
+            this.thread = thread;
+            this.seq = numSleepers++;
+        }
+
+        public int compareTo(Sleeper sleeper) {
+            if (wakeTime != sleeper.wakeTime)
+                return (wakeTime < sleeper.wakeTime) ? -1 : 1;
+            else
+                return (seq < sleeper.seq) ? -1 : (seq > sleeper.seq) ? 1 : 0;
+        }
+
+        long wakeTime;
+        long seq;
+        KThread thread;
+        ThreadQueue queue = null;
+        boolean timedOut = false;
+        boolean cancelled = false;
+        boolean dequeued = false;
+    }
 }
@@ -68,6 +68,100 @@ public class AlarmTest {
         System.out.println("**** Alarm testing ends ****");
     }
 
+    /**
+     * Tests the timed waits built on the alarm. Each primitive must time out
+     * when nobody wakes it, and must return early without timing out when
+     * somebody does.
+     */
+    public static void runTimedWaitTest() {
+        System.out.println("**** Timed wait testing begins ****");
+
+        final Semaphore sem = new Semaphore(0);
+        long start = Machine.timer().getTime();
+        Lib.assertTrue(!sem.P(2000));
+        Lib.assertTrue(Machine.timer().getTime() - start >= 2000);
+        System.out.println("** Semaphore.P timed out after "+
+                           (Machine.timer().getTime()-start)+" ticks");
+
+        new KThread(new Runnable() {
+                public void run() { sem.V(); }
+            }).setName("V-er").fork();
+        Lib.assertTrue(sem.P(100000));
+
+        final Lock lock = new Lock();
+        KThread holder = new KThread(new Runnable() {
+                public void run() {
+                    lock.acquire();
+                    ThreadedKernel.alarm.waitUntil(3000);
+                    lock.release();
+                }
+            }).setName("Holder");
+        holder.fork();
+        KThread.yield();
+        Lib.assertTrue(!lock.tryAcquire(1000));
+        Lib.assertTrue(lock.tryAcquire(100000));
+        System.out.println("** Lock.tryAcquire succeeded after the holder "+
+                           "released");
+
+        final Condition2 cond = new Condition2(lock);
+        start = Machine.timer().getTime();
+        Lib.assertTrue(!cond.sleepFor(1500));
+        Lib.assertTrue(lock.isHeldByCurrentThread());
+        Lib.assertTrue(Machine.timer().getTime() - start >= 1500);
+
+        new KThread(new Runnable() {
+                public void run() {
+                    lock.acquire();
+                    cond.wake();
+                    lock.release();
+                }
+            }).setName("Waker").fork();
+        Lib.assertTrue(cond.sleepFor(100000));
+        lock.release();
+        holder.join();
+
+        final Communicator comm = new Communicator();
+        Lib.assertTrue(comm.listen(1000) == null);
+        new KThread(new Runnable() {
+                public void run() { comm.speak(412); }
+            }).setName("Speaker").fork();
+        Lib.assertTrue(comm.listen(100000).intValue() == 412);
+        System.out.println("** Communicator.listen heard 412");
+
+        // the waiter is given the semaphore, but the timer takes its entry
+        // off the heap before it runs again; two other sleepers keep the
+        // heap from being purged
+        KThread[] sleepers = new KThread[2];
+        for (int i=0; i<sleepers.length; i++) {
+            sleepers[i] = new KThread(new Runnable() {
+                    public void run() { ThreadedKernel.alarm.waitUntil(20000); }
+                }).setName("Sleeper " + i);
+            sleepers[i].fork();
+        }
+        KThread.yield();
+
+        new KThread(new Runnable() {
+                public void run() {
+                    sem.V();
+                    // keep the processor until a timer interrupt has passed
+                    long end = Machine.timer().getTime() + 2000;
+                    while (Machine.timer().getTime() < end) {
+                        Machine.interrupt().disable();
+                        Machine.interrupt().enable();
+                    }
+                }
+            }).setName("Late V-er").fork();
+        Lib.assertTrue(sem.P(1));
+        Lib.assertTrue(ThreadedKernel.alarm.getSleeperCount() == 2);
+        for (int i=0; i<sleepers.length; i++)
+            sleepers[i].join();
+        Lib.assertTrue(ThreadedKernel.alarm.getSleeperCount() == 0);
+        System.out.println("** sleepers counted correctly after a late "+
+                           "wakeup");
+
+        System.out.println("**** Timed wait testing ends ****");
+    }
+
     private static final int numAThreads = 20;
 
     /* Bounds on delay for sleep */
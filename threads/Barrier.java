@@ -0,0 +1,132 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>Barrier</tt> makes a fixed number of threads, the <i>parties</i>,
+ * wait for each other. Each party calls <tt>await()</tt>; the first
+ * <i>parties</i>-1 callers sleep, and the last one to arrive wakes them all
+ * and returns at once. The barrier then resets, so it can be used again for
+ * the next round.
+ *
+ * <p>
+ * All waiting threads are moved to the ready queue in a single pass, with
+ * interrupts disabled only once, in the order the scheduler's thread queue
+ * chooses.
+ */
+public class Barrier {
+    /**
+     * Allocate a new barrier.
+     *
+     * @param	parties	the number of threads that must call
+     *			<tt>await()</tt> before any of them proceed.
+     */
+    public Barrier(int parties) {
+	Lib.assertTrue(parties > 0);
+
+	this.parties = parties;
+    }
+
+    /**
+     * Wait until all parties have called <tt>await()</tt> in the current
+     * round.
+     *
+     * @return	the arrival index of the current thread: <i>parties</i>-1
+     *		for the first to arrive, down to 0 for the last.
+     */
+    public int await() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int index = parties - 1 - arrived;
+	arrived++;
+
+	if (arrived < parties) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep(ThreadStats.blockOther);
+	}
+	else {
+	    // last to arrive: release this round and start the next
+	    arrived = 0;
+	    rounds++;
+
+	    KThread thread;
+	    while ((thread = waitQueue.nextThread()) != null)
+		thread.ready();
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return index;
+    }
+
+    /**
+     * Return the number of parties.
+     *
+     * @return	the number of threads the barrier waits for.
+     */
+    public int getParties() {
+	return parties;
+    }
+
+    /**
+     * Return the number of rounds that have completed.
+     *
+     * @return	the number of times all parties have arrived.
+     */
+    public int getRounds() {
+	return rounds;
+    }
+
+    private static class PhaseTest implements Runnable {
+	PhaseTest(Barrier barrier, int[] phase, int me) {
+	    this.barrier = barrier;
+	    this.phase = phase;
+	    this.me = me;
+	}
+
+	public void run() {
+	    for (int round=0; round<5; round++) {
+		phase[me] = round;
+		barrier.await();
+
+		// nobody may be more than one round ahead
+		for (int i=0; i<phase.length; i++)
+		    Lib.assertTrue(phase[i] >= round && phase[i] <= round+1);
+
+		barrier.await();
+	    }
+	}
+
+	private Barrier barrier;
+	private int[] phase;
+	private int me;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	Barrier barrier = new Barrier(4);
+	int[] phase = new int[4];
+
+	KThread[] threads = new KThread[3];
+	for (int i=0; i<threads.length; i++) {
+	    threads[i] = new KThread(new PhaseTest(barrier, phase, i+1));
+	    threads[i].setName("barrier " + (i+1)).fork();
+	}
+
+	new PhaseTest(barrier, phase, 0).run();
+
+	for (int i=0; i<threads.length; i++)
+	    threads[i].join();
+
+	Lib.assertTrue(barrier.getRounds() == 10);
+    }
+
+    private int parties;
+    private int arrived = 0;
+    private int rounds = 0;
+
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+}
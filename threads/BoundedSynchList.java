@@ -0,0 +1,231 @@
+package nachos.threads;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import nachos.machine.*;
+
+/**
+ * A synchronized queue with a fixed capacity, for any number of producers and
+ * consumers. Elements are kept in a ring buffer, so adding and removing them
+ * does not allocate.
+ *
+ * <p>
+ * A producer can either wait for room with <tt>add()</tt>, or use
+ * <tt>offer()</tt> to give up at once when the queue is full. A consumer can
+ * take one element with <tt>removeFirst()</tt>, or every waiting element, up
+ * to a limit, with <tt>drainTo()</tt>.
+ */
+public class BoundedSynchList {
+    /**
+     * Allocate a new bounded synchronized queue.
+     *
+     * @param	capacity	the largest number of elements the queue can
+     *				hold.
+     */
+    public BoundedSynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	ring = new Object[capacity];
+	lock = new Lock();
+	listEmpty = new Condition(lock);
+	listFull = new Condition(lock);
+    }
+
+    /**
+     * Add the specified object to the end of the queue, waiting until there
+     * is room if necessary. If another thread is waiting in
+     * <tt>removeFirst()</tt> or <tt>drainTo()</tt>, it is woken up.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     */
+    public void add(Object o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	while (count == ring.length)
+	    listFull.sleep();
+	append(o);
+	lock.release();
+    }
+
+    /**
+     * Add the specified object to the end of the queue if there is room,
+     * without waiting.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, or <tt>false</tt> if
+     *		the queue was full.
+     */
+    public boolean offer(Object o) {
+	Lib.assertTrue(o != null);
+
+	boolean added;
+
+	lock.acquire();
+	if (count == ring.length) {
+	    numRejected++;
+	    added = false;
+	}
+	else {
+	    append(o);
+	    added = true;
+	}
+	lock.release();
+
+	return added;
+    }
+
+    /**
+     * Remove an object from the front of the queue, blocking until the queue
+     * is non-empty if necessary.
+     *
+     * @return	the element removed from the front of the queue.
+     */
+    public Object removeFirst() {
+	Object o;
+
+	lock.acquire();
+	while (count == 0)
+	    listEmpty.sleep();
+	o = ring[head];
+	ring[head] = null;
+	head = (head + 1) % ring.length;
+	count--;
+	listFull.wake();
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Wait until the queue is non-empty, and then move up to <i>max</i>
+     * elements from the front of the queue to the end of <i>c</i>, in order.
+     *
+     * @param	c	the collection to add the elements to.
+     * @param	max	the largest number of elements to move. Must be
+     *			positive.
+     * @return	the number of elements moved.
+     */
+    public int drainTo(Collection<Object> c, int max) {
+	Lib.assertTrue(max > 0);
+
+	lock.acquire();
+	while (count == 0)
+	    listEmpty.sleep();
+
+	int amount = Math.min(max, count);
+	for (int i=0; i<amount; i++) {
+	    c.add(ring[head]);
+	    ring[head] = null;
+	    head = (head + 1) % ring.length;
+	}
+	count -= amount;
+
+	if (amount == 1)
+	    listFull.wake();
+	else
+	    listFull.wakeAll();
+	lock.release();
+
+	return amount;
+    }
+
+    /**
+     * Return the number of elements in the queue. The value may be out of
+     * date as soon as it is returned.
+     *
+     * @return	the number of elements in the queue.
+     */
+    public int size() {
+	return count;
+    }
+
+    /**
+     * Return the largest number of elements the queue can hold.
+     *
+     * @return	the capacity of the queue.
+     */
+    public int getCapacity() {
+	return ring.length;
+    }
+
+    /**
+     * Return the largest number of elements the queue has ever held.
+     *
+     * @return	the high-water mark of the queue.
+     */
+    public int getHighWaterMark() {
+	return highWaterMark;
+    }
+
+    /**
+     * Return the number of times <tt>offer()</tt> found the queue full.
+     *
+     * @return	the number of rejected elements.
+     */
+    public int getNumRejected() {
+	return numRejected;
+    }
+
+    /**
+     * Append an element and wake a consumer. The lock must be held and the
+     * queue must not be full.
+     */
+    private void append(Object o) {
+	ring[(head + count) % ring.length] = o;
+	count++;
+	if (count > highWaterMark)
+	    highWaterMark = count;
+	listEmpty.wake();
+    }
+
+    private static class DrainTest implements Runnable {
+	DrainTest(BoundedSynchList list, int howMany) {
+	    this.list = list;
+	    this.howMany = howMany;
+	}
+
+	public void run() {
+	    for (int i=0; i<howMany; i++)
+		list.add(Integer.valueOf(i));
+	}
+
+	private BoundedSynchList list;
+	private int howMany;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	BoundedSynchList list = new BoundedSynchList(4);
+
+	for (int i=0; i<4; i++)
+	    Lib.assertTrue(list.offer(Integer.valueOf(i)));
+	Lib.assertTrue(!list.offer(Integer.valueOf(4)));
+	Lib.assertTrue(list.getNumRejected() == 1);
+	for (int i=0; i<4; i++)
+	    Lib.assertTrue(((Integer) list.removeFirst()).intValue() == i);
+
+	new KThread(new DrainTest(list, 100)).setName("drain").fork();
+
+	LinkedList<Object> drained = new LinkedList<Object>();
+	while (drained.size() < 100)
+	    list.drainTo(drained, 3);
+
+	for (int i=0; i<100; i++)
+	    Lib.assertTrue(((Integer) drained.removeFirst()).intValue() == i);
+	Lib.assertTrue(list.getHighWaterMark() <= list.getCapacity());
+    }
+
+    private Object[] ring;
+    private int head = 0;
+    private int count = 0;
+
+    private int highWaterMark = 0;
+    private int numRejected = 0;
+
+    private Lock lock;
+    private Condition listEmpty;
+    private Condition listFull;
+}
@@ -0,0 +1,208 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>buffered communicator</i> lets threads exchange 32-bit messages through
+ * a bounded buffer. Unlike a <tt>Communicator</tt>, a speaker does not wait
+ * for a listener: it deposits its words and returns, and only blocks while the
+ * buffer is full. A listener only blocks while the buffer is empty.
+ *
+ * <p>
+ * Words are received in the order they were deposited, and the words of one
+ * <tt>speak()</tt> call stay in order. Batch operations move many words with a
+ * single disable of interrupts and at most one wakeup per batch, so moving
+ * <i>n</i> words does not cost <i>n</i> context switches.
+ */
+public class BufferedCommunicator {
+    /**
+     * Allocate a new buffered communicator.
+     *
+     * @param	capacity	the number of words the buffer can hold.
+     */
+    public BufferedCommunicator(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	this.buffer = new int[capacity];
+	this.listenerQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+	this.speakerQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+    }
+
+    /**
+     * Deposit <i>word</i> in the buffer, waiting for room if it is full.
+     *
+     * @param	word	the integer to transfer.
+     */
+    public void speak(int word) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (count == buffer.length)
+	    waitForRoom();
+
+	buffer[(head + count) % buffer.length] = word;
+	count++;
+
+	wakeWaiters();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Deposit all of <i>words</i> in the buffer, waiting for room as needed.
+     * If the batch is larger than the free space, it is transferred in
+     * pieces, and listeners are woken after each piece.
+     *
+     * @param	words	the integers to transfer.
+     */
+    public void speak(int[] words) {
+	speak(words, 0, words.length);
+    }
+
+    /**
+     * Deposit <i>length</i> words from <i>words</i>, starting at
+     * <i>offset</i>, waiting for room as needed.
+     *
+     * @param	words	the array holding the integers to transfer.
+     * @param	offset	the index of the first integer to transfer.
+     * @param	length	the number of integers to transfer.
+     */
+    public void speak(int[] words, int offset, int length) {
+	Lib.assertTrue(offset >= 0 && length >= 0 &&
+		       offset + length <= words.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (length > 0) {
+	    while (count == buffer.length)
+		waitForRoom();
+
+	    int amount = Math.min(length, buffer.length - count);
+	    for (int i=0; i<amount; i++)
+		buffer[(head + count + i) % buffer.length] = words[offset + i];
+
+	    count += amount;
+	    offset += amount;
+	    length -= amount;
+
+	    wakeWaiters();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait for a word to be deposited, and then remove and return it.
+     *
+     * @return	the integer transferred.
+     */
+    public int listen() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (count == 0)
+	    waitForWords();
+
+	int word = buffer[head];
+	head = (head + 1) % buffer.length;
+	count--;
+
+	wakeWaiters();
+
+	Machine.interrupt().restore(intStatus);
+
+	return word;
+    }
+
+    /**
+     * Wait for at least one word to be deposited, and then remove as many as
+     * are available, up to <i>max</i>, into <i>words</i>.
+     *
+     * @param	words	the array to store the integers in.
+     * @param	max	the largest number of integers to remove. Must be at
+     *			least one, and no greater than the length of
+     *			<i>words</i>.
+     * @return	the number of integers removed.
+     */
+    public int listen(int[] words, int max) {
+	Lib.assertTrue(max > 0 && max <= words.length);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (count == 0)
+	    waitForWords();
+
+	int amount = Math.min(max, count);
+	for (int i=0; i<amount; i++)
+	    words[i] = buffer[(head + i) % buffer.length];
+
+	head = (head + amount) % buffer.length;
+	count -= amount;
+
+	wakeWaiters();
+
+	Machine.interrupt().restore(intStatus);
+
+	return amount;
+    }
+
+    /**
+     * Return the number of words the buffer can hold.
+     *
+     * @return	the capacity of the buffer.
+     */
+    public int getCapacity() {
+	return buffer.length;
+    }
+
+    /**
+     * Sleep until a listener removes words. Interrupts must be disabled.
+     */
+    private void waitForRoom() {
+	speakerQueue.waitForAccess(KThread.currentThread());
+	speakersWaiting++;
+	KThread.sleep(ThreadStats.blockCommunicator);
+    }
+
+    /**
+     * Sleep until a speaker deposits words. Interrupts must be disabled.
+     */
+    private void waitForWords() {
+	listenerQueue.waitForAccess(KThread.currentThread());
+	listenersWaiting++;
+	KThread.sleep(ThreadStats.blockCommunicator);
+    }
+
+    /**
+     * Wake one waiting listener if there are words for it, and one waiting
+     * speaker if there is room for it. Every thread calls this after
+     * changing the buffer, so a thread that leaves words or room behind
+     * passes the wakeup on, and each transfer needs only one wakeup per
+     * side. Interrupts must be disabled.
+     */
+    private void wakeWaiters() {
+	if (listenersWaiting > 0 && count > 0) {
+	    listenersWaiting--;
+	    listenerQueue.nextThread().ready();
+	}
+
+	if (speakersWaiting > 0 && count < buffer.length) {
+	    speakersWaiting--;
+	    speakerQueue.nextThread().ready();
+	}
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	BufferedCommunicatorTest.runTest();
+    }
+
+    private int[] buffer;
+    private int head = 0;
+    private int count = 0;
+
+    private ThreadQueue listenerQueue;
+    private ThreadQueue speakerQueue;
+    private int listenersWaiting = 0;
+    private int speakersWaiting = 0;
+}
@@ -0,0 +1,93 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the BufferedCommunicator class
+ */
+public class BufferedCommunicatorTest {
+
+    /**
+     * Producer class, which speaks the words first, first+1, ... in batches
+     * of random size.
+     */
+    private static class Producer implements Runnable {
+
+        /* Constructor */
+        Producer(BufferedCommunicator comm, int first, int howMany) {
+            this.comm = comm;
+            this.first = first;
+            this.howMany = howMany;
+        }
+
+        /** run() method for the Producer. Batches are up to three times
+         *  the capacity of the buffer, so some of them must be split.
+         */
+        public void run() {
+            int batch[] = new int[3*comm.getCapacity()];
+            int next = first;
+            while (next < first + howMany) {
+                int length = Math.min(1 + Lib.random(batch.length),
+                                      first + howMany - next);
+                for (int i=0; i < length; i++)
+                    batch[i] = next++;
+                if (length == 1)
+                    comm.speak(batch[0]);
+                else
+                    comm.speak(batch, 0, length);
+            }
+        }
+
+        BufferedCommunicator comm;
+        int first;
+        int howMany;
+    }
+
+    /**
+     * Tests whether this module is working. Two producers share one
+     * buffered communicator, and one consumer drains it in batches. The
+     * words of each producer must arrive in order and none may be lost.
+     */
+    public static void runTest() {
+        System.out.println("**** BufferedCommunicator testing begins ****");
+
+        BufferedCommunicator comm = new BufferedCommunicator(capacity);
+
+        KThread producers[] = new KThread[2];
+        for (int i=0; i < producers.length; i++) {
+            producers[i] = new KThread(new Producer(comm, i*howMany, howMany));
+            producers[i].setName("Producer-"+i);
+            producers[i].fork();
+        }
+
+        int expected[] = { 0, howMany };
+        int words[] = new int[capacity];
+        int received = 0, batches = 0;
+        while (received < 2*howMany) {
+            /* Alternate between batch and single-word transfers */
+            int n = 1;
+            if (batches % 2 == 0)
+                n = comm.listen(words, words.length);
+            else
+                words[0] = comm.listen();
+
+            for (int i=0; i < n; i++) {
+                int p = words[i] / howMany;
+                Lib.assertTrue(words[i] == expected[p]);
+                expected[p]++;
+            }
+            received += n;
+            batches++;
+        }
+
+        for (int i=0; i < producers.length; i++)
+            producers[i].join();
+
+        System.out.println("** received "+received+" words in "+batches+
+                           " transfers");
+        System.out.println("**** BufferedCommunicator testing ends ****");
+    }
+
+    private static final int capacity = 16;
+    private static final int howMany = 1000;
+}
@@ -39,7 +39,7 @@ public class Communicator {
 	    //Puts speaker in the speaker queue
 	    this.speakerQueue.waitForAccess(KThread.currentThread());
 	    //Puts speaker to sleep
-	    KThread.sleep();
+	    KThread.sleep(ThreadStats.blockCommunicator);
 	}
        
 	buffer = word;
@@ -76,13 +76,47 @@ public class Communicator {
 	}
 	
 	//Puts the listener to sleep
-	KThread.sleep();
+	KThread.sleep(ThreadStats.blockCommunicator);
 	
 	//Restores interrupts and returns the buffer (word)
 	Machine.interrupt().restore(intStatus);
         return buffer;
     }
     
+    /**
+     * Wait at most <i>timeout</i> ticks for a thread to speak through this
+     * communicator, and then return the <i>word</i> that thread passed to
+     * <tt>speak()</tt>.
+     *
+     * @param   timeout the maximum number of clock ticks to wait.
+     * @return  the integer transferred, or <tt>null</tt> if no thread spoke
+     *          in time.
+     */
+    public Integer listen(long timeout) {
+	//Disable interrupts
+	boolean intStatus = Machine.interrupt().disable();
+	
+	//Gets the first speaker in the speaker queue
+	KThread thread = speakerQueue.nextThread();
+	
+	//Puts the listener in the listener queue
+	this.listenerQueue.waitForAccess(KThread.currentThread());
+	
+	//If there is a speaker
+	if(thread != null){
+	    //Wake up that speaker
+	    thread.ready();
+	}
+	
+	//Puts the listener to sleep until a speaker pairs with it
+	boolean paired = ThreadedKernel.alarm.waitOn(listenerQueue, timeout,
+						     ThreadStats.blockCommunicator);
+	
+	//Restores interrupts and returns the buffer (word)
+	Machine.interrupt().restore(intStatus);
+	return paired ? Integer.valueOf(buffer) : null;
+    }
+    
     /**
      * Tests whether this module is working.
      */
@@ -2,8 +2,6 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.LinkedList;
-
 /**
  * An implementation of condition variables built upon semaphores.
  *
@@ -61,7 +59,7 @@ public class Condition {
     public Condition(Lock conditionLock) {
 	this.conditionLock = conditionLock;
 
-	waitQueue = new LinkedList<Semaphore>();
+	profiler = LockProfiler.create("Condition");
     }
 
     /**
@@ -71,20 +69,36 @@ public class Condition {
      * automatically reacquire the lock before <tt>sleep()</tt> returns.
      *
      * <p>
-     * This implementation uses semaphores to implement this, by allocating a
-     * semaphore for each waiting thread. The waker will <tt>V()</tt> this
+     * This implementation uses semaphores to implement this, by giving each
+     * waiting thread a semaphore. The waker will <tt>V()</tt> this
      * semaphore, so thre is no chance the sleeper will miss the wake-up, even
-     * though the lock is released before caling <tt>P()</tt>.
+     * though the lock is released before caling <tt>P()</tt>. A thread can
+     * only wait on one condition at a time, so each thread keeps its
+     * semaphore, and its link in the wait list, across waits, and waiting
+     * allocates nothing.
      */
     public void sleep() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-	Semaphore waiter = new Semaphore(0);
-	waitQueue.add(waiter);
+	long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
+
+	KThread thread = KThread.currentThread();
+	if (thread.conditionWaiter == null)
+	    thread.conditionWaiter = new Semaphore(0, false);
+
+	thread.conditionNext = null;
+	if (waitTail == null)
+	    waitHead = thread;
+	else
+	    waitTail.conditionNext = thread;
+	waitTail = thread;
 
 	conditionLock.release();
-	waiter.P();
-	conditionLock.acquire();	
+	thread.conditionWaiter.P();
+	conditionLock.acquire();
+
+	if (profiler != null)
+	    profiler.acquired(true, startTime);
     }
 
     /**
@@ -94,8 +108,15 @@ public class Condition {
     public void wake() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-	if (!waitQueue.isEmpty())
-	    ((Semaphore) waitQueue.removeFirst()).V();
+	KThread thread = waitHead;
+	if (thread != null) {
+	    waitHead = thread.conditionNext;
+	    if (waitHead == null)
+		waitTail = null;
+	    thread.conditionNext = null;
+
+	    thread.conditionWaiter.V();
+	}
     }
 
     /**
@@ -105,8 +126,20 @@ public class Condition {
     public void wakeAll() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-	while (!waitQueue.isEmpty())
-	    wake();
+	// detach the whole list, then make every waiter ready in one pass
+	KThread thread = waitHead;
+	waitHead = waitTail = null;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	while (thread != null) {
+	    KThread next = thread.conditionNext;
+	    thread.conditionNext = null;
+	    thread.conditionWaiter.V();
+	    thread = next;
+	}
+
+	Machine.interrupt().restore(intStatus);
     }
 
     /**
@@ -119,5 +152,8 @@ public class Condition {
     private static final char dbgCondition = 'c';
 
     private Lock conditionLock;
-    private LinkedList<Semaphore> waitQueue;
+    /** Threads waiting on this condition, linked by conditionNext */
+    private KThread waitHead = null;
+    private KThread waitTail = null;
+    private LockProfiler profiler;
 }
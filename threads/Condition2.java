@@ -24,6 +24,7 @@ public class Condition2 {
         this.conditionLock = conditionLock;
 
         this.waitingThreads = ThreadedKernel.scheduler.newThreadQueue(true);
+        this.profiler = LockProfiler.create("Condition2");
     }
 
     /**
@@ -34,6 +35,7 @@ public class Condition2 {
      */
     public void sleep() {
         boolean intStatus = Machine.interrupt().disable();
+        long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
 
         /* If the current thread doesn't hold the lock, then abort */
         Lib.assertTrue(conditionLock.isHeldByCurrentThread());
@@ -45,12 +47,49 @@ public class Condition2 {
         conditionLock.release();
 
         // Go to sleep
-        KThread.sleep();
+        KThread.sleep(ThreadStats.blockCondition);
 
         // Get lock upon awakening
         conditionLock.acquire();
 
+        if (profiler != null)
+            profiler.acquired(true, startTime);
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Like <tt>sleep()</tt>, but wake up on its own if no other thread has
+     * woken it within <i>ticks</i> clock ticks. The thread reacquires the
+     * associated lock before returning in either case.
+     *
+     * @param   ticks   the maximum number of clock ticks to sleep.
+     * @return  <tt>true</tt> if the thread was woken by <tt>wake()</tt> or
+     *          <tt>wakeAll()</tt>, or <tt>false</tt> if it timed out.
+     */
+    public boolean sleepFor(long ticks) {
+        boolean intStatus = Machine.interrupt().disable();
+        long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
+
+        /* If the current thread doesn't hold the lock, then abort */
+        Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+        waitingThreads.waitForAccess(KThread.currentThread());
+
+        conditionLock.release();
+
+        // Sleep until woken or the time is up
+        boolean woken = ThreadedKernel.alarm.waitOn(waitingThreads, ticks,
+                                                    ThreadStats.blockCondition);
+
+        conditionLock.acquire();
+
+        if (profiler != null)
+            profiler.acquired(true, startTime);
+
         Machine.interrupt().restore(intStatus);
+
+        return woken;
     }
 
     /**
@@ -102,4 +141,7 @@ public class Condition2 {
 
     /** Threads waiting for this condition to be signaled */
     private ThreadQueue waitingThreads = null;
+
+    /** Contention profile, or null if profiling is disabled */
+    private LockProfiler profiler;
 }
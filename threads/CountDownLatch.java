@@ -0,0 +1,170 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedList;
+
+/**
+ * A <tt>CountDownLatch</tt> lets threads wait until a number of events have
+ * happened. The latch starts with a count; <tt>countDown()</tt> decrements
+ * it, and <tt>await()</tt> waits until it reaches zero. Once the count is
+ * zero it stays zero, and <tt>await()</tt> returns at once.
+ *
+ * <p>
+ * When the count reaches zero, all waiting threads are moved to the ready
+ * queue in a single pass.
+ *
+ * <p>
+ * The threads that will count the latch down can be named in advance with
+ * <tt>addWorker()</tt>. Waiting threads then donate priority to every named
+ * worker that has not counted down yet, under schedulers that transfer
+ * priority, so a high-priority waiter is not held up by low-priority workers.
+ */
+public class CountDownLatch {
+    /**
+     * Allocate a new latch.
+     *
+     * @param	count	the number of times <tt>countDown()</tt> must be
+     *			called before waiting threads proceed.
+     */
+    public CountDownLatch(int count) {
+	Lib.assertTrue(count >= 0);
+
+	this.count = count;
+    }
+
+    /**
+     * Name a thread that will call <tt>countDown()</tt>, so that waiting
+     * threads donate priority to it until it does.
+     *
+     * @param	worker	a thread that will count down this latch.
+     */
+    public void addWorker(KThread worker) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0) {
+	    workers.add(worker);
+	    waitQueue.acquireShared(worker);
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Decrement the count, waking all waiting threads if it reaches zero. If
+     * the count is already zero, do nothing.
+     */
+    public void countDown() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	if (workers.remove(thread))
+	    waitQueue.releaseShared(thread);
+
+	if (count > 0 && --count == 0) {
+	    while (!workers.isEmpty())
+		waitQueue.releaseShared(workers.removeFirst());
+
+	    while ((thread = waitQueue.nextThread()) != null)
+		thread.ready();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait until the count reaches zero.
+     */
+    public void await() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    KThread.sleep(ThreadStats.blockOther);
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait at most <i>timeout</i> ticks for the count to reach zero.
+     *
+     * @param	timeout	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the count reached zero.
+     */
+    public boolean await(long timeout) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	boolean reached = true;
+	if (count > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    reached = ThreadedKernel.alarm.waitOn(waitQueue, timeout,
+						  ThreadStats.blockOther);
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return reached;
+    }
+
+    /**
+     * Return the current count.
+     *
+     * @return	the number of <tt>countDown()</tt> calls still needed.
+     */
+    public int getCount() {
+	return count;
+    }
+
+    private static class Worker implements Runnable {
+	Worker(CountDownLatch start, CountDownLatch done, int[] counter) {
+	    this.start = start;
+	    this.done = done;
+	    this.counter = counter;
+	}
+
+	public void run() {
+	    start.await();
+	    counter[0]++;
+	    done.countDown();
+	}
+
+	private CountDownLatch start;
+	private CountDownLatch done;
+	private int[] counter;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	CountDownLatch start = new CountDownLatch(1);
+	CountDownLatch done = new CountDownLatch(5);
+	int[] counter = new int[1];
+
+	for (int i=0; i<5; i++) {
+	    KThread worker = new KThread(new Worker(start, done, counter));
+	    worker.setName("latch worker " + i);
+	    done.addWorker(worker);
+	    worker.fork();
+	}
+
+	KThread.yield();
+	Lib.assertTrue(counter[0] == 0);
+	Lib.assertTrue(!done.await(1000));
+
+	start.countDown();
+	done.await();
+	Lib.assertTrue(counter[0] == 5 && done.getCount() == 0);
+
+	// a latch at zero never blocks
+	done.await();
+	Lib.assertTrue(done.await(0));
+    }
+
+    private int count;
+    private LinkedList<KThread> workers = new LinkedList<KThread>();
+
+    private ThreadQueue waitQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
+}
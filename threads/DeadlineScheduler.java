@@ -0,0 +1,334 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.TreeSet;
+import java.util.Iterator;
+import java.util.Comparator;
+
+/**
+ * A scheduler that runs periodic real-time threads in earliest-deadline-first
+ * order, above a class of best-effort threads.
+ *
+ * <p>
+ * A thread becomes a real-time thread by calling <tt>setDeadline()</tt> with a
+ * period, a budget and a relative deadline. Every period the thread is
+ * released to run one job, which should end with a call to
+ * <tt>KThread.waitForNextPeriod()</tt>. While a real-time thread has budget
+ * left in its current period, it always runs before any best-effort thread,
+ * and among real-time threads the one with the earliest absolute deadline
+ * runs first.
+ *
+ * <p>
+ * Admission control uses the density test: a thread is only admitted if the
+ * sum of <tt>budget / deadline</tt> over all real-time threads stays at or
+ * below one, which guarantees EDF can meet every deadline.
+ *
+ * <p>
+ * Budgets are enforced at timer interrupts. A thread that has used up its
+ * budget when it is preempted is demoted to the best-effort class until its
+ * next release. Jobs that finish after their deadline, or that are still
+ * running when their deadline passes, are counted in
+ * <tt>Stats.numDeadlineMisses</tt>.
+ *
+ * <p>
+ * Best-effort threads are scheduled exactly as by the
+ * <tt>FairShareScheduler</tt>.
+ */
+public class DeadlineScheduler extends FairShareScheduler {
+    /**
+     * Allocate a new deadline scheduler.
+     */
+    public DeadlineScheduler() {
+    }
+
+    /**
+     * Allocate a new deadline thread queue.
+     *
+     * @param   transferPriority        ignored. Deadline schedulers do not
+     *                                  donate priority.
+     * @return  a new deadline thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new DeadlineQueue();
+    }
+
+    public boolean setDeadline(KThread thread, long period, long budget,
+                               long deadline) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        DeadlineState state = getDeadlineState(thread);
+
+        if (period == 0) {
+            totalDensity -= state.density();
+            state.period = 0;
+            return true;
+        }
+
+        Lib.assertTrue(budget > 0 && budget <= deadline && deadline <= period);
+
+        double density = (double) budget / deadline;
+        if (totalDensity - state.density() + density > 1.0) {
+            Lib.debug(dbgDeadline, "Rejected real-time thread " + thread);
+            return false;
+        }
+
+        // the deadline is the key of the real-time tree
+        DeadlineQueue queue = state.rtQueue;
+        if (queue != null)
+            queue.rtQueue.remove(state);
+
+        totalDensity += density - state.density();
+
+        state.period = period;
+        state.budget = budget;
+        state.deadline = deadline;
+        state.release = Machine.timer().getTime();
+        state.used = 0;
+        state.missed = false;
+
+        if (queue != null)
+            queue.rtQueue.add(state);
+
+        return true;
+    }
+
+    public long finishJob(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        DeadlineState state = getDeadlineState(thread);
+        if (state.period == 0)
+            return 0;
+
+        long now = Machine.timer().getTime();
+        state.chargeBudget(now);
+
+        if (now > state.release + state.deadline && !state.missed)
+            Machine.stats().numDeadlineMisses++;
+
+        // skip any releases whose deadlines have already passed
+        state.release += state.period;
+        while (now > state.release + state.deadline) {
+            state.release += state.period;
+            Machine.stats().numDeadlineMisses++;
+        }
+
+        state.used = 0;
+        state.missed = false;
+
+        return Math.max(0, state.release - now);
+    }
+
+    public void threadFinished(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        totalDensity -= getDeadlineState(thread).density();
+        getDeadlineState(thread).period = 0;
+    }
+
+    /**
+     * Charge the budget of the thread giving up the processor, in addition
+     * to its virtual runtime.
+     */
+    public void switchingThreads(KThread previous, KThread next) {
+        super.switchingThreads(previous, next);
+
+        long now = Machine.timer().getTime();
+
+        getDeadlineState(previous).chargeBudget(now);
+        getDeadlineState(next).budgetCharged = now;
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+        DeadlineSchedulerTest.runTest();
+    }
+
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new DeadlineState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param   thread  the thread whose scheduling state to return.
+     * @return  the scheduling state of the specified thread.
+     */
+    protected DeadlineState getDeadlineState(KThread thread) {
+        return (DeadlineState) getThreadState(thread);
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that holds real-time threads with budget left
+     * in a tree sorted by absolute deadline, and all other threads in a
+     * fair-share tree.
+     */
+    protected class DeadlineQueue extends FairQueue {
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            DeadlineState state = getDeadlineState(thread);
+            if (state.period == 0) {
+                super.waitForAccess(thread);
+                return;
+            }
+
+            long now = Machine.timer().getTime();
+            if (thread == KThread.currentThread())
+                state.chargeBudget(now);
+
+            state.update(now);
+
+            // out of budget: run as a best-effort thread until replenished
+            if (state.used >= state.budget) {
+                super.waitForAccess(thread);
+                return;
+            }
+
+            Lib.assertTrue(state.rtQueue == null);
+            state.rtQueue = this;
+            rtQueue.add(state);
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            DeadlineState state = rtQueue.pollFirst();
+            if (state == null)
+                return super.nextThread();
+
+            state.rtQueue = null;
+            return state.thread;
+        }
+
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            DeadlineState state = getDeadlineState(thread);
+            if (state.rtQueue != this)
+                return super.remove(thread);
+
+            rtQueue.remove(state);
+            state.rtQueue = null;
+            return true;
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(rtQueue.isEmpty());
+
+            super.acquire(thread);
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (Iterator<DeadlineState> i=rtQueue.iterator(); i.hasNext(); ) {
+                DeadlineState state = i.next();
+                System.out.print(state.thread + "<" +
+                                 (state.release + state.deadline) + "> ");
+            }
+
+            super.print();
+        }
+
+        private TreeSet<DeadlineState> rtQueue =
+            new TreeSet<DeadlineState>(new CompareByDeadline());
+    }
+
+    /** Class to compare real-time threads by absolute deadline */
+    private static class CompareByDeadline implements Comparator<DeadlineState> {
+        public int compare(DeadlineState x, DeadlineState y) {
+            long dx = x.release + x.deadline, dy = y.release + y.deadline;
+
+            if (dx < dy)
+                return -1;
+            else if (dx > dy)
+                return 1;
+            else
+                return x.thread.compareTo(y.thread);
+        }
+    }
+
+    /**
+     * The scheduling state of a thread, including its real-time parameters
+     * and the progress of its current job.
+     */
+    protected class DeadlineState extends ThreadState {
+        /**
+         * Allocate a new best-effort <tt>DeadlineState</tt>.
+         *
+         * @param       thread  the thread this state belongs to.
+         */
+        public DeadlineState(KThread thread) {
+            super(thread);
+        }
+
+        /**
+         * Charge the processor time used since the last charge against the
+         * current budget.
+         *
+         * @param       now     the current time.
+         */
+        void chargeBudget(long now) {
+            used += now - budgetCharged;
+            budgetCharged = now;
+        }
+
+        /**
+         * Record a missed deadline, and replenish the budget if one or more
+         * periods have started since the current release.
+         *
+         * @param       now     the current time.
+         */
+        void update(long now) {
+            // a job is only late once its deadline has passed, but a job
+            // still running when its period ends can no longer finish in time
+            if ((now > release + deadline || now >= release + period)
+                && !missed) {
+                Machine.stats().numDeadlineMisses++;
+                missed = true;
+            }
+
+            if (now >= release + period) {
+                release += ((now - release) / period) * period;
+                used = 0;
+                missed = false;
+            }
+        }
+
+        /**
+         * Return the fraction of the processor this thread has reserved.
+         */
+        double density() {
+            return (period == 0) ? 0 : (double) budget / deadline;
+        }
+
+        /** Ticks between releases, or <tt>0</tt> if best-effort. */
+        protected long period = 0;
+        /** Processor time allowed per release. */
+        protected long budget;
+        /** Ticks after each release by which the job must finish. */
+        protected long deadline;
+        /** The time the current job was released. */
+        protected long release;
+        /** Processor time used by the current job. */
+        protected long used;
+
+        /** Set once the current job has been counted as a miss. */
+        private boolean missed = false;
+        /** The time up to which the budget has been charged. */
+        private long budgetCharged = Machine.timer().getTime();
+        /** The real-time tree the thread is waiting in, if any. */
+        private DeadlineQueue rtQueue = null;
+    }
+
+    /** The sum of the densities of all admitted real-time threads. */
+    private double totalDensity = 0;
+
+    private static final char dbgDeadline = 'e';
+}
@@ -0,0 +1,100 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the DeadlineScheduler class
+ */
+public class DeadlineSchedulerTest {
+
+    /**
+     * PeriodicWorker class, which implements a real-time thread that burns
+     * a fixed amount of CPU time in each of its periods.
+     */
+    private static class PeriodicWorker implements Runnable {
+
+        /* Constructor */
+        PeriodicWorker(String name, long work, int howMany) {
+            this.name = name;
+            this.work = work;
+            this.howMany = howMany;
+        }
+
+        /** run() method for the PeriodicWorker. Each job yields until it
+         *  has been on the CPU for work ticks, then waits for the next
+         *  period.
+         */
+        public void run() {
+            for (int i=0; i < howMany; i++) {
+                long start = Machine.timer().getTime();
+                long done = 0;
+                while (done < work) {
+                    long before = Machine.timer().getTime();
+                    KThread.yield();
+                    done += Machine.timer().getTime() - before;
+                }
+                System.out.println("** "+name+": job "+i+" took "+
+                                   (Machine.timer().getTime()-start)+" ticks");
+                KThread.waitForNextPeriod();
+            }
+            KThread.currentThread().setDeadline(0, 0, 0);
+        }
+
+        String name;
+        long work;
+        int howMany;
+    }
+
+    /**
+     * Hog class, which implements a best-effort thread that never blocks.
+     */
+    private static class Hog implements Runnable {
+        public void run() {
+            while (!done)
+                KThread.yield();
+        }
+
+        boolean done = false;
+    }
+
+    /**
+     * Tests whether this module is working. Two admitted periodic threads
+     * must meet all their deadlines despite a CPU hog, and a third thread
+     * that would overload the CPU must be refused.
+     */
+    public static void runTest() {
+        System.out.println("**** DeadlineScheduler testing begins ****");
+
+        int missesBefore = Machine.stats().numDeadlineMisses;
+
+        Hog hog = new Hog();
+        KThread hogThread = new KThread(hog).setName("Hog");
+        hogThread.fork();
+
+        KThread fast = new KThread(new PeriodicWorker("Fast", 500, 10));
+        fast.setName("Fast");
+        Lib.assertTrue(fast.setDeadline(5000, 1000, 5000));
+
+        KThread slow = new KThread(new PeriodicWorker("Slow", 2000, 5));
+        slow.setName("Slow");
+        Lib.assertTrue(slow.setDeadline(10000, 3000, 10000));
+
+        /* 0.2 + 0.3 + 0.6 > 1, so this one must be refused */
+        KThread greedy = new KThread(new PeriodicWorker("Greedy", 100, 1));
+        Lib.assertTrue(!greedy.setDeadline(5000, 3000, 5000));
+
+        fast.fork();
+        slow.fork();
+        fast.join();
+        slow.join();
+
+        hog.done = true;
+        hogThread.join();
+
+        int misses = Machine.stats().numDeadlineMisses - missesBefore;
+        System.out.println("** deadline misses: "+misses);
+        Lib.assertTrue(misses == 0);
+
+        System.out.println("**** DeadlineScheduler testing ends ****");
+    }
+}
@@ -0,0 +1,194 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An <i>event count</i> is a counter that only goes up, with an operation to
+ * wait until it reaches a given value:
+ *
+ * <ul>
+ * <li><tt>read()</tt>: return the current value.
+ * <li><tt>advance()</tt>: increment the value, and wake every thread whose
+ * target it has reached.
+ * <li><tt>await(v)</tt>: wait until the value is at least <i>v</i>.
+ * </ul>
+ *
+ * <p>
+ * Together with a <i>sequencer</i>, which hands out consecutive tickets with
+ * <tt>ticket()</tt>, an event count orders threads without a lock: a thread
+ * takes a ticket <i>t</i>, waits with <tt>await(t)</tt> for its turn, does
+ * its work and calls <tt>advance()</tt> to let ticket <i>t</i>+1 in. For
+ * example, batched I/O completions can be consumed in issue order this way.
+ *
+ * <p>
+ * Waiting threads are grouped by target value, each group in its own
+ * scheduler thread queue, so <tt>advance()</tt> only looks at the threads it
+ * wakes, and wakes them all in one pass.
+ */
+public class EventCount {
+    /**
+     * Allocate a new event count, with value zero.
+     */
+    public EventCount() {
+    }
+
+    /**
+     * Return the current value of the event count.
+     *
+     * @return	the current value.
+     */
+    public long read() {
+	return value;
+    }
+
+    /**
+     * Increment the event count, and wake all threads waiting for the new
+     * value or a smaller one.
+     */
+    public void advance() {
+	advance(1);
+    }
+
+    /**
+     * Add <i>amount</i> to the event count, and wake all threads waiting for
+     * the new value or a smaller one.
+     *
+     * @param	amount	the amount to add. Must not be negative.
+     */
+    public void advance(long amount) {
+	Lib.assertTrue(amount >= 0);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	value += amount;
+
+	Iterator<Map.Entry<Long,ThreadQueue>> i =
+	    waiters.headMap(value, true).entrySet().iterator();
+	while (i.hasNext()) {
+	    ThreadQueue queue = i.next().getValue();
+
+	    KThread thread;
+	    while ((thread = queue.nextThread()) != null)
+		thread.ready();
+
+	    i.remove();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait until the value of the event count is at least <i>target</i>.
+     *
+     * @param	target	the value to wait for.
+     */
+    public void await(long target) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (value < target) {
+	    ThreadQueue queue = waiters.get(target);
+	    if (queue == null) {
+		queue = ThreadedKernel.scheduler.newThreadQueue(false);
+		waiters.put(target, queue);
+	    }
+
+	    queue.waitForAccess(KThread.currentThread());
+	    KThread.sleep(ThreadStats.blockOther);
+	}
+
+	Lib.assertTrue(value >= target);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the next ticket of the sequencer associated with this event
+     * count. Tickets start at zero and are handed out in order, each one
+     * exactly once.
+     *
+     * @return	a new ticket.
+     */
+    public long ticket() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	long ticket = nextTicket++;
+
+	Machine.interrupt().restore(intStatus);
+
+	return ticket;
+    }
+
+    private static class TurnTest implements Runnable {
+	TurnTest(EventCount turn, StringBuffer order, char name) {
+	    this.turn = turn;
+	    this.order = order;
+	    this.name = name;
+	}
+
+	public void run() {
+	    for (int i=0; i<3; i++) {
+		long ticket = turn.ticket();
+		turn.await(ticket);
+		order.append(name);
+		KThread.yield();
+		turn.advance();
+	    }
+	}
+
+	private EventCount turn;
+	private StringBuffer order;
+	private char name;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	EventCount turn = new EventCount();
+	StringBuffer order = new StringBuffer();
+
+	KThread[] threads = new KThread[3];
+	for (int i=0; i<threads.length; i++) {
+	    threads[i] = new KThread(new TurnTest(turn, order, (char) ('a'+i)));
+	    threads[i].setName("turn " + i).fork();
+	}
+
+	for (int i=0; i<threads.length; i++)
+	    threads[i].join();
+
+	// every thread held the turn exactly three times
+	Lib.assertTrue(order.length() == 9 && turn.read() == 9);
+
+	// waiters for different targets wake once their target is reached
+	final EventCount count = new EventCount();
+	final long[] seen = new long[2];
+	for (int i=0; i<2; i++) {
+	    final int me = i;
+	    threads[i] = new KThread(new Runnable() {
+		    public void run() {
+			count.await(2*me + 2);
+			seen[me] = count.read();
+		    }
+		}).setName("awaiter " + i);
+	    threads[i].fork();
+	}
+	KThread.yield();
+	for (int i=0; i<4; i++) {
+	    count.advance();
+	    KThread.yield();
+	}
+	threads[0].join();
+	threads[1].join();
+	Lib.assertTrue(seen[0] >= 2 && seen[1] == 4);
+    }
+
+    private long value = 0;
+    private long nextTicket = 0;
+
+    /** Waiting threads, grouped by the value they are waiting for */
+    private TreeMap<Long,ThreadQueue> waiters = new TreeMap<Long,ThreadQueue>();
+}
@@ -0,0 +1,301 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.TreeSet;
+import java.util.Iterator;
+
+/**
+ * A scheduler that gives each thread a share of the processor proportional to
+ * its weight.
+ *
+ * <p>
+ * Every thread accumulates <i>virtual runtime</i>: the number of ticks it has
+ * spent on the processor, scaled down by its weight. Time is charged at each
+ * context switch, using the difference in <tt>Stats.totalTicks</tt> since the
+ * thread was dispatched. The next thread to be dequeued is always the waiting
+ * thread with the smallest virtual runtime, so threads that have received
+ * less than their share are run first. Waiting threads are kept in a balanced
+ * tree, so every scheduling decision costs <i>O(log n)</i>.
+ *
+ * <p>
+ * Weights are derived from the priorities set with <tt>setPriority()</tt>.
+ * As with the priority scheduler, a numerically smaller priority is more
+ * important; each priority level is worth about 25% more processor time than
+ * the next.
+ *
+ * <p>
+ * A thread that has been blocked for a long time would otherwise return with
+ * a virtual runtime far behind everyone else's and monopolize the processor
+ * while it catches up. Instead, when a thread starts waiting, its virtual
+ * runtime is raised to no less than the smallest virtual runtime among
+ * runnable threads, minus a small sleeper credit. This still lets interactive
+ * threads run soon after they wake up.
+ *
+ * <p>
+ * This scheduler does not donate priority.
+ */
+public class FairShareScheduler extends Scheduler {
+    /**
+     * Allocate a new fair-share scheduler.
+     */
+    public FairShareScheduler() {
+    }
+
+    /**
+     * Allocate a new fair-share thread queue.
+     *
+     * @param   transferPriority        ignored. Fair-share schedulers do not
+     *                                  donate priority.
+     * @return  a new fair-share thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new FairQueue();
+    }
+
+    public int getPriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getThreadState(thread).priority;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        return getThreadState(thread).priority;
+    }
+
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Lib.assertTrue(priority >= priorityMinimum &&
+                       priority <= priorityMaximum);
+
+        getThreadState(thread).priority = priority;
+    }
+
+    /**
+     * Charge the thread giving up the processor for the time it ran, and
+     * start timing the thread receiving it.
+     */
+    public void switchingThreads(KThread previous, KThread next) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        long now = Machine.timer().getTime();
+
+        ThreadState previousState = getThreadState(previous);
+        if (previousState.waitQueue == null)
+            previousState.charge(now);
+
+        ThreadState nextState = getThreadState(next);
+        nextState.lastCharged = now;
+
+        // the idle thread never waits in a queue, so it does not count
+        if (nextState.dequeued) {
+            nextState.dequeued = false;
+            if (nextState.vruntime > minVruntime)
+                minVruntime = nextState.vruntime;
+        }
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+        FairShareSchedulerTest.runTest();
+    }
+
+    /**
+     * The default priority for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum priority that a thread can have.
+     */
+    public static final int priorityMinimum = 0;
+    /**
+     * The maximum priority that a thread can have.
+     */
+    public static final int priorityMaximum = 7;
+
+    /**
+     * The weight of each priority level. A thread of weight
+     * <tt>weights[priorityDefault]</tt> accumulates virtual runtime at the
+     * same rate as real time.
+     */
+    private static final int[] weights =
+        { 1280, 1024, 820, 655, 526, 423, 335, 272 };
+
+    /**
+     * The largest amount of virtual runtime a thread may gain back by
+     * sleeping.
+     */
+    private static final long sleeperCredit = Stats.TimerTicks;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param   thread  the thread whose scheduling state to return.
+     * @return  the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new ThreadState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that sorts threads by virtual runtime.
+     */
+    protected class FairQueue extends ThreadQueue {
+        /**
+         * Insert a thread into the tree. If the thread is the one that is
+         * running, charge it first so that its key does not change while it
+         * is in the tree.
+         *
+         * @param       thread  the thread waiting for access.
+         */
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState state = getThreadState(thread);
+            Lib.assertTrue(state.waitQueue == null);
+
+            if (thread == KThread.currentThread())
+                state.charge(Machine.timer().getTime());
+
+            if (state.vruntime < minVruntime - sleeperCredit)
+                state.vruntime = minVruntime - sleeperCredit;
+
+            state.waitQueue = this;
+            waitQueue.add(state);
+        }
+
+        /**
+         * Remove the thread with the smallest virtual runtime.
+         *
+         * @return      the leftmost thread in the tree, or <tt>null</tt> if
+         *              the tree is empty.
+         */
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState state = waitQueue.pollFirst();
+            if (state == null)
+                return null;
+
+            state.waitQueue = null;
+            state.dequeued = true;
+
+            return state.thread;
+        }
+
+        /**
+         * Remove a waiting thread from the tree.
+         *
+         * @param       thread  the thread to remove.
+         * @return      <tt>true</tt> if the thread was in the tree.
+         */
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState state = getThreadState(thread);
+            if (state.waitQueue != this)
+                return false;
+
+            waitQueue.remove(state);
+            state.waitQueue = null;
+            return true;
+        }
+
+        /**
+         * The specified thread has received exclusive access, without using
+         * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Assert that no
+         * threads are waiting for access.
+         */
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            Lib.assertTrue(waitQueue.isEmpty());
+        }
+
+        /**
+         * Print out the contents of the queue, in scheduling order.
+         */
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (Iterator<ThreadState> i=waitQueue.iterator(); i.hasNext(); ) {
+                ThreadState state = i.next();
+                System.out.print(state.thread + "[" + state.vruntime + "] ");
+            }
+        }
+
+        private TreeSet<ThreadState> waitQueue = new TreeSet<ThreadState>();
+    }
+
+    /**
+     * The scheduling state of a thread: its priority and its virtual runtime.
+     *
+     * @see     nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState implements Comparable<ThreadState> {
+        /**
+         * Allocate a new <tt>ThreadState</tt> object and associate it with the
+         * specified thread. New threads start with the smallest virtual
+         * runtime of any runnable thread.
+         *
+         * @param       thread  the thread this state belongs to.
+         */
+        public ThreadState(KThread thread) {
+            this.thread = thread;
+            this.priority = priorityDefault;
+            this.vruntime = minVruntime;
+            this.lastCharged = Machine.timer().getTime();
+        }
+
+        /**
+         * Add the time since the thread was last charged to its virtual
+         * runtime, scaled by its weight. Only valid while the thread is
+         * running.
+         *
+         * @param       now     the current time.
+         */
+        void charge(long now) {
+            long delta = now - lastCharged;
+            lastCharged = now;
+
+            vruntime += delta * weights[priorityDefault] / weights[priority];
+        }
+
+        /**
+         * Order by virtual runtime, breaking ties deterministically.
+         */
+        public int compareTo(ThreadState state) {
+            if (vruntime < state.vruntime)
+                return -1;
+            else if (vruntime > state.vruntime)
+                return 1;
+            else
+                return thread.compareTo(state.thread);
+        }
+
+        /** The thread with which this object is associated. */
+        protected KThread thread;
+        /** The priority of the associated thread. */
+        protected int priority;
+        /** The weighted processor time the thread has received. */
+        protected long vruntime;
+
+        /** The time up to which the thread has been charged. */
+        private long lastCharged;
+        /** The queue the thread is waiting in, if any. */
+        private FairQueue waitQueue = null;
+        /** Set when the thread leaves a queue, until it is dispatched. */
+        private boolean dequeued = false;
+    }
+
+    /** The smallest virtual runtime of any recently dispatched thread. */
+    private long minVruntime = 0;
+}
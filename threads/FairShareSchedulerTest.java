@@ -0,0 +1,71 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the FairShareScheduler class
+ */
+public class FairShareSchedulerTest {
+
+    /**
+     * Spinner class, which implements a CPU-bound thread that counts how many
+     * times it gets to run before a deadline passes.
+     */
+    private static class Spinner implements Runnable {
+
+        /* Constructor */
+        Spinner(String name, long endTime) {
+            this.name = name;
+            this.endTime = endTime;
+            this.count = 0;
+        }
+
+        /** run() method for the Spinner. Yields until endTime.
+         */
+        public void run() {
+            while (Machine.timer().getTime() < endTime) {
+                count++;
+                KThread.yield();
+            }
+            System.out.println("** "+name+" ran "+count+" times");
+        }
+
+        String name;
+        long endTime;
+        int count;
+    }
+
+    /**
+     * Tests whether this module is working. Three spinners with different
+     * priorities compete for the CPU; the number of times each one runs
+     * should be roughly proportional to the weight of its priority, so the
+     * priority 0 spinner should run about twice as often as the priority 3
+     * spinner.
+     */
+    public static void runTest() {
+        System.out.println("**** FairShareScheduler testing begins ****");
+
+        long endTime = Machine.timer().getTime() + 100000;
+        int priorities[] = { 0, 1, 3 };
+
+        Spinner spinners[] = new Spinner[priorities.length];
+        KThread threads[] = new KThread[priorities.length];
+        for (int i=0; i < priorities.length; i++) {
+            spinners[i] = new Spinner("Spinner (priority "+priorities[i]+")",
+                                      endTime);
+            threads[i] = new KThread(spinners[i]);
+            threads[i].setName("Spinner-"+i);
+            threads[i].setPriority(priorities[i]);
+            threads[i].fork();
+        }
+
+        for (int i=0; i < priorities.length; i++)
+            threads[i].join();
+
+        /* Higher priorities must never get less CPU than lower ones */
+        Lib.assertTrue(spinners[0].count >= spinners[1].count);
+        Lib.assertTrue(spinners[1].count >= spinners[2].count);
+
+        System.out.println("**** FairShareScheduler testing ends ****");
+    }
+}
@@ -110,6 +110,26 @@ public class KThread {
         return name;
     }
 
+    /**
+     * Get the numerical ID of this thread. IDs are assigned in order of
+     * creation, starting at 0.
+     *
+     * @return  the thread's ID.
+     */
+    int getID() {
+        return id;
+    }
+
+    /**
+     * Get the ID of the user process this thread belongs to. Kernel threads
+     * belong to no process.
+     *
+     * @return  the process ID, or -1 for a kernel thread.
+     */
+    public int getProcessID() {
+        return -1;
+    }
+
     /**
      * Get the full name of this thread. This includes its name along with its
      * numerical ID. This name is used for debugging purposes only.
@@ -145,7 +165,7 @@ public class KThread {
         Lib.assertTrue(status == statusNew);
         Lib.assertTrue(target != null);
 
-        Lib.debug(dbgThread, "Forking thread: " + toString());
+        Lib.debug(dbgThread, "Forking thread: %s", this);
 
         boolean intStatus = Machine.interrupt().disable();
 
@@ -170,7 +190,7 @@ public class KThread {
     }
 
     private void begin() {
-        Lib.debug(dbgThread, "Thread begins: " + toString());
+        Lib.debug(dbgThread, "Thread begins: %s", this);
 
         Lib.assertTrue(this == currentThread);
 
@@ -190,13 +210,15 @@ public class KThread {
      * delete this thread.
      */
     public static void finish() {
-        Lib.debug(dbgThread, "Thread ends:" + currentThread.toString());
+        Lib.debug(dbgThread, "Thread ends:%s", currentThread);
 
         // Wake threads that have joined the currently running thread
         currentThread.wakeJoiners();
 
         Machine.interrupt().disable();
 
+        ThreadedKernel.scheduler.threadFinished(currentThread);
+
         Machine.autoGrader().finishingCurrentThread();
 
         Lib.assertTrue(toBeDestroyed == null);
@@ -225,13 +247,27 @@ public class KThread {
      * called with interrupts disabled.
      */
     public static void yield() {
-        Lib.debug(dbgThread, "Thread yields: " + currentThread.toString());
+        yieldCPU(false);
+    }
+
+    /**
+     * Relinquish the CPU because the current thread's time slice has expired.
+     * Behaves exactly like <tt>yield()</tt>, except that the resulting context
+     * switch is counted as involuntary. Called by the timer interrupt handler.
+     */
+    public static void preempt() {
+        yieldCPU(true);
+    }
+
+    private static void yieldCPU(boolean preempted) {
+        Lib.debug(dbgThread, "Thread yields: %s", currentThread);
 
         Lib.assertTrue(currentThread.status == statusRunning);
 
         boolean intStatus = Machine.interrupt().disable();
 
         currentThread.ready();
+        currentThread.preempted = preempted;
 
         runNextThread();
 
@@ -250,12 +286,25 @@ public class KThread {
      * scheduled this thread to be destroyed by the next thread to run.
      */
     public static void sleep() {
-        Lib.debug(dbgThread, "Sleeping thread: " + currentThread.toString());
+        sleep(ThreadStats.blockOther);
+    }
+
+    /**
+     * Relinquish the CPU, recording in the current thread's statistics why it
+     * is blocking. Otherwise the same as <tt>sleep()</tt>.
+     *
+     * @param   reason  one of the <tt>ThreadStats.block<i>*</i></tt>
+     *                  constants.
+     */
+    public static void sleep(int reason) {
+        Lib.debug(dbgThread, "Sleeping thread: %s", currentThread);
 
         Lib.assertTrue(Machine.interrupt().disabled());
 
-        if (currentThread.status != statusFinished)
+        if (currentThread.status != statusFinished) {
             currentThread.status = statusBlocked;
+            currentThread.stats.blocked(reason);
+        }
 
 
         runNextThread();
@@ -266,12 +315,13 @@ public class KThread {
      * ready queue.
      */
     public void ready() {
-        Lib.debug(dbgThread, "Ready thread: " + toString());
+        Lib.debug(dbgThread, "Ready thread: %s", this);
 
         Lib.assertTrue(Machine.interrupt().disabled());
         Lib.assertTrue(status != statusReady);
 
         status = statusReady;
+        stats.readied(Machine.timer().getTime());
         if (this != idleThread)
             readyQueue.waitForAccess(this);
 
@@ -286,12 +336,12 @@ public class KThread {
      */
     public void join() {
 
-        Lib.debug(dbgThread, "Joining to thread: " + toString());
+        Lib.debug(dbgThread, "Joining to thread: %s", this);
         boolean intStatus = Machine.interrupt().disable();
 
         if(status != statusFinished) {  // Joinee is not finished yet
             waitingList.waitForAccess(this.currentThread());
-            KThread.sleep();
+            KThread.sleep(ThreadStats.blockJoin);
         }
         Machine.interrupt().restore(intStatus);
 
@@ -360,8 +410,15 @@ public class KThread {
 
         currentThread.saveState();
 
-        Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
-                + " to: " + toString());
+        Lib.debug(dbgThread, "Switching from: %s to: %s", currentThread, this);
+
+        ThreadedKernel.scheduler.switchingThreads(currentThread, this);
+
+        long now = Machine.timer().getTime();
+        currentThread.stats.descheduled(now, currentThread.preempted);
+        currentThread.preempted = false;
+        stats.dispatched(now);
+        contextSwitches.increment();
 
         currentThread = this;
 
@@ -375,7 +432,7 @@ public class KThread {
      * <tt>statusRunning</tt> and check <tt>toBeDestroyed</tt>.
      */
     protected void restoreState() {
-        Lib.debug(dbgThread, "Running thread: " + currentThread.toString());
+        Lib.debug(dbgThread, "Running thread: %s", currentThread);
 
         Lib.assertTrue(Machine.interrupt().disabled());
         Lib.assertTrue(this == currentThread);
@@ -431,6 +488,39 @@ public class KThread {
         return priority;
     }
 
+    /**
+     * Make this thread a periodic real-time thread.
+     *
+     * @see     nachos.threads.Scheduler#setDeadline
+     */
+    public boolean setDeadline(long period, long budget, long deadline) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        boolean admitted =
+            ThreadedKernel.scheduler.setDeadline(this, period, budget,
+                                                 deadline);
+
+        Machine.interrupt().restore(intStatus);
+
+        return admitted;
+    }
+
+    /**
+     * Finish the current thread's real-time job and sleep until its next
+     * release. Returns immediately if the current thread is not a real-time
+     * thread.
+     */
+    public static void waitForNextPeriod() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        long delay = ThreadedKernel.scheduler.finishJob(currentThread);
+
+        Machine.interrupt().restore(intStatus);
+
+        if (delay > 0)
+            ThreadedKernel.alarm.waitUntil(delay);
+    }
+
     /**
      * Wakes threads that have joined the current thread.
      */
@@ -460,6 +550,15 @@ public class KThread {
         KThreadSimpleTest.runTest();
     }
 
+    /**
+     * Return the scheduling statistics of this thread.
+     *
+     * @return  the scheduling statistics of this thread.
+     */
+    public ThreadStats getStats() {
+        return stats;
+    }
+
     public void setWord(int word) {
       this.word = word;
     }
@@ -469,6 +568,8 @@ public class KThread {
     }
 
     private static final char dbgThread = 't';
+    private static Metrics.Counter contextSwitches =
+        Metrics.counter("threads.contextSwitches");
 
     /**
      * Additional state used by schedulers.
@@ -477,6 +578,16 @@ public class KThread {
      */
     public Object schedulingState = null;
 
+    /**
+     * The semaphore this thread sleeps on while waiting in a
+     * <tt>Condition</tt>, allocated on first use and reused for every wait.
+     *
+     * @see     nachos.threads.Condition
+     */
+    Semaphore conditionWaiter = null;
+    /** The next thread waiting in the same <tt>Condition</tt>. */
+    KThread conditionNext = null;
+
     private static final int statusNew = 0;
     /** Thread is currently waiting for access to the CPU */
     private static final int statusReady = 1;
@@ -496,6 +607,11 @@ public class KThread {
     private Runnable target;
     private TCB tcb;
 
+    /** Scheduling statistics of this thread */
+    private ThreadStats stats = new ThreadStats(this);
+    /** Set if this thread is giving up the CPU because it was preempted */
+    private boolean preempted = false;
+
     /** Threads that are joining this thread */
     private ThreadQueue waitingList = null;
 
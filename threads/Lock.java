@@ -24,6 +24,7 @@ public class Lock {
      * Allocate a new lock. The lock will initially be <i>free</i>.
      */
     public Lock() {
+	profiler = LockProfiler.create("Lock");
     }
 
     /**
@@ -35,10 +36,12 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 	KThread thread = KThread.currentThread();
+	long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
+	boolean contended = (lockHolder != null);
 
-	if (lockHolder != null) {
+	if (contended) {
 	    waitQueue.waitForAccess(thread);
-	    KThread.sleep();
+	    KThread.sleep(ThreadStats.blockLock);
 	}
 	else {
 	    waitQueue.acquire(thread);
@@ -47,9 +50,48 @@ public class Lock {
 
 	Lib.assertTrue(lockHolder == thread);
 
+	if (profiler != null)
+	    profiler.acquired(contended, startTime);
+
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Atomically acquire this lock, giving up if it is not acquired within
+     * <i>timeout</i> ticks. The current thread must not already hold this
+     * lock.
+     *
+     * @param	timeout	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the lock was acquired.
+     */
+    public boolean tryAcquire(long timeout) {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+	long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
+	boolean contended = (lockHolder != null);
+
+	if (contended) {
+	    waitQueue.waitForAccess(thread);
+	    ThreadedKernel.alarm.waitOn(waitQueue, timeout,
+					ThreadStats.blockLock);
+	}
+	else {
+	    waitQueue.acquire(thread);
+	    lockHolder = thread;
+	}
+
+	boolean acquired = (lockHolder == thread);
+
+	if (acquired && profiler != null)
+	    profiler.acquired(contended, startTime);
+
+	Machine.interrupt().restore(intStatus);
+
+	return acquired;
+    }
+
     /**
      * Atomically release this lock, allowing other threads to acquire it.
      */
@@ -58,6 +100,9 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 
+	if (profiler != null)
+	    profiler.released();
+
 	if ((lockHolder = waitQueue.nextThread()) != null)
 	    lockHolder.ready();
 	
@@ -74,6 +119,7 @@ public class Lock {
     }
 
     private KThread lockHolder = null;
+    private LockProfiler profiler;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(true);
 }
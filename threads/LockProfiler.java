@@ -0,0 +1,190 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Contention profiling for the synchronization primitives. When profiling is
+ * enabled, every <tt>Lock</tt>, <tt>Semaphore</tt>, <tt>Condition</tt> and
+ * <tt>Condition2</tt> created afterwards gets a <tt>LockProfiler</tt> that
+ * counts:
+ *
+ * <ul>
+ * <li>acquisitions (<tt>P()</tt> for semaphores, <tt>sleep()</tt> for
+ * condition variables),
+ * <li>contended acquisitions, which had to wait,
+ * <li>ticks spent waiting, and ticks the lock was held,
+ * <li>for each thread, how often it had to wait.
+ * </ul>
+ *
+ * <p>
+ * Profiling is turned on by setting <tt>ThreadedKernel.lockProfile</tt> to
+ * true; the report, sorted by total wait time, is printed when the machine
+ * halts. Each primitive is identified by its kind, a serial number, and the
+ * place in the code that created it. When profiling is off, the primitives
+ * hold a <tt>null</tt> profiler and only pay for testing that field.
+ *
+ * <p>
+ * All methods must be called with interrupts disabled or with the
+ * primitive's own lock held, so the counters need no locking of their own.
+ */
+public class LockProfiler {
+    /**
+     * Allocate a profiler for a new synchronization primitive, if profiling
+     * is enabled.
+     *
+     * @param	kind	the kind of primitive, e.g. <tt>"Lock"</tt>.
+     * @return	a new profiler, or <tt>null</tt> if profiling is disabled.
+     */
+    static LockProfiler create(String kind) {
+	if (!enabled)
+	    return null;
+
+	LockProfiler profiler = new LockProfiler(kind);
+	allProfilers.add(profiler);
+	return profiler;
+    }
+
+    /**
+     * Turn profiling on, and arrange for the report to be printed when the
+     * machine halts.
+     */
+    static void enable() {
+	if (enabled)
+	    return;
+
+	enabled = true;
+	Machine.addHaltHandler(new Runnable() {
+		public void run() { print(); }
+	    });
+    }
+
+    private LockProfiler(String kind) {
+	this.name = kind + "#" + allProfilers.size() + " " + creationSite();
+    }
+
+    /**
+     * Find the first stack frame outside the threads package's primitives,
+     * which is where the primitive was created.
+     */
+    private static String creationSite() {
+	StackTraceElement[] trace = new Throwable().getStackTrace();
+	for (int i=0; i<trace.length; i++) {
+	    String className = trace[i].getClassName();
+	    if (!className.equals(LockProfiler.class.getName()) &&
+		!className.equals(Lock.class.getName()) &&
+		!className.equals(Semaphore.class.getName()) &&
+		!className.equals(Condition.class.getName()) &&
+		!className.equals(Condition2.class.getName()))
+		return "(" + className.substring(className.lastIndexOf('.')+1)
+		    + "." + trace[i].getMethodName() + ":"
+		    + trace[i].getLineNumber() + ")";
+	}
+	return "(unknown)";
+    }
+
+    /**
+     * Record an acquisition by the current thread.
+     *
+     * @param	contended	<tt>true</tt> if the thread had to wait.
+     * @param	startTime	the time the thread asked to acquire.
+     */
+    void acquired(boolean contended, long startTime) {
+	long time = Machine.timer().getTime();
+
+	acquisitions++;
+	acquiredTime = time;
+
+	if (contended) {
+	    contendedAcquisitions++;
+	    waitTicks += time - startTime;
+
+	    KThread thread = KThread.currentThread();
+	    Integer count = waiters.get(thread);
+	    waiters.put(thread, (count == null) ? 1 : count.intValue() + 1);
+	}
+    }
+
+    /**
+     * Record that the holder released the primitive acquired most recently.
+     */
+    void released() {
+	holdTicks += Machine.timer().getTime() - acquiredTime;
+    }
+
+    /**
+     * Return the names of the threads that waited most often.
+     */
+    private String topWaiters() {
+	ArrayList<Map.Entry<KThread,Integer>> entries =
+	    new ArrayList<Map.Entry<KThread,Integer>>(waiters.entrySet());
+	Collections.sort(entries, new Comparator<Map.Entry<KThread,Integer>>() {
+		public int compare(Map.Entry<KThread,Integer> x,
+				   Map.Entry<KThread,Integer> y) {
+		    return y.getValue().intValue() - x.getValue().intValue();
+		}
+	    });
+
+	StringBuffer result = new StringBuffer();
+	for (int i=0; i<entries.size() && i<numTopWaiters; i++) {
+	    Map.Entry<KThread,Integer> entry = entries.get(i);
+	    result.append(" " + entry.getKey().getName() + "=" +
+			  entry.getValue());
+	}
+	return result.toString();
+    }
+
+    /**
+     * Print the profile of every primitive that was ever acquired, the most
+     * waited-for first.
+     */
+    public static void print() {
+	ArrayList<LockProfiler> used = new ArrayList<LockProfiler>();
+	for (Iterator<LockProfiler> i=allProfilers.iterator(); i.hasNext(); ) {
+	    LockProfiler profiler = i.next();
+	    if (profiler.acquisitions > 0)
+		used.add(profiler);
+	}
+
+	Collections.sort(used, new Comparator<LockProfiler>() {
+		public int compare(LockProfiler x, LockProfiler y) {
+		    if (x.waitTicks != y.waitTicks)
+			return (x.waitTicks > y.waitTicks) ? -1 : 1;
+		    return y.contendedAcquisitions - x.contendedAcquisitions;
+		}
+	    });
+
+	System.out.println("Lock profile (acquisitions, contended, wait ticks, "
+			   + "hold ticks, top waiters):");
+	for (Iterator<LockProfiler> i=used.iterator(); i.hasNext(); ) {
+	    LockProfiler profiler = i.next();
+	    System.out.println("  " + profiler.name + ": "
+			       + profiler.acquisitions + ", "
+			       + profiler.contendedAcquisitions + ", "
+			       + profiler.waitTicks + ", "
+			       + profiler.holdTicks + ","
+			       + profiler.topWaiters());
+	}
+    }
+
+    private String name;
+
+    private int acquisitions = 0;
+    private int contendedAcquisitions = 0;
+    private long waitTicks = 0;
+    private long holdTicks = 0;
+    private long acquiredTime = 0;
+    private HashMap<KThread,Integer> waiters = new HashMap<KThread,Integer>();
+
+    private static boolean enabled = false;
+    private static ArrayList<LockProfiler> allProfilers =
+	new ArrayList<LockProfiler>();
+
+    private static final int numTopWaiters = 3;
+}
@@ -181,6 +181,37 @@ public class PriorityScheduler extends Scheduler {
 
 
 
+        /**
+         * Remove a waiting thread. The priority it was donating to the
+         * current owner goes away with it, since effective priorities are
+         * computed from the threads that are still waiting.
+         */
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            return waitQueue.remove(thread);
+        }
+
+        /**
+         * Make this queue one of the resources owned by <i>thread</i>,
+         * alongside any other threads sharing it, so that waiting threads
+         * donate priority to all of them.
+         */
+        public void acquireShared(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            getThreadState(thread).addResource(this);
+        }
+
+        /**
+         * Stop <i>thread</i> from receiving priority through this queue.
+         */
+        public void releaseShared(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            getThreadState(thread).removeResource(this);
+        }
+
         /**
          * Select the next thread in the ThreadQueue
          */
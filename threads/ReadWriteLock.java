@@ -0,0 +1,301 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedList;
+
+/**
+ * A <tt>ReadWriteLock</tt> is a lock that any number of <i>readers</i> can
+ * hold at the same time, or a single <i>writer</i> can hold alone.
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: wait until no writer holds or is waiting for
+ * the lock, then hold it for reading.
+ * <li><tt>acquireWrite()</tt>: wait until nobody holds the lock, then hold it
+ * for writing.
+ * <li><tt>upgrade()</tt>: turn a read hold into a write hold, waiting for the
+ * other readers to leave.
+ * <li><tt>downgrade()</tt>: turn a write hold into a read hold, without
+ * letting a writer in between.
+ * </ul>
+ *
+ * <p>
+ * Writers are preferred: once a writer is waiting, new readers wait behind
+ * it, so a steady stream of readers cannot starve writers. When a writer
+ * releases the lock, the next waiting writer gets it; only when no writer is
+ * waiting are all waiting readers let in together.
+ *
+ * <p>
+ * Waiting threads donate priority to every thread that holds the lock:
+ * blocked writers to all current readers, and blocked readers and writers to
+ * the current writer. The donation is done by the scheduler's thread queues,
+ * so it only happens under schedulers that transfer priority.
+ *
+ * <p>
+ * The lock is not reentrant. A thread must not acquire a lock it already
+ * holds, and only a thread that holds the lock may release it.
+ */
+public class ReadWriteLock {
+    /**
+     * Allocate a new reader-writer lock. The lock is initially free.
+     */
+    public ReadWriteLock() {
+    }
+
+    /**
+     * Atomically acquire this lock for reading.
+     */
+    public void acquireRead() {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (writer != null || writersWaiting > 0 || upgrader != null) {
+	    readersWaiting++;
+	    readerQueue.waitForAccess(thread);
+	    KThread.sleep(ThreadStats.blockLock);
+	}
+	else {
+	    grantRead(thread);
+	}
+
+	Lib.assertTrue(readers.contains(thread));
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically acquire this lock for writing.
+     */
+    public void acquireWrite() {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (writer != null || !readers.isEmpty()) {
+	    writersWaiting++;
+	    writerQueue.waitForAccess(thread);
+	    KThread.sleep(ThreadStats.blockLock);
+	}
+	else {
+	    grantWrite(thread);
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release this lock, which the current thread must hold for
+     * reading.
+     */
+    public void releaseRead() {
+	Lib.assertTrue(isReadHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	revokeRead(KThread.currentThread());
+	admit();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically release this lock, which the current thread must hold for
+     * writing.
+     */
+    public void releaseWrite() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	revokeWrite(KThread.currentThread());
+	admit();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Atomically turn the current thread's read hold into a write hold,
+     * waiting until all other readers have released the lock. The upgrading
+     * thread goes ahead of any waiting writers.
+     *
+     * <p>
+     * Only one thread can wait to upgrade at a time, since two readers
+     * waiting for each other to leave would deadlock. If another thread is
+     * already waiting to upgrade, this method returns <tt>false</tt> at once,
+     * and the current thread still holds the lock for reading. It should
+     * then release the lock and call <tt>acquireWrite()</tt>.
+     *
+     * @return	<tt>true</tt> if the current thread now holds the lock for
+     *		writing.
+     */
+    public boolean upgrade() {
+	Lib.assertTrue(isReadHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	if (upgrader != null) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	if (readers.size() > 1) {
+	    upgrader = thread;
+	    upgradeQueue.waitForAccess(thread);
+	    KThread.sleep(ThreadStats.blockLock);
+	}
+	else {
+	    revokeRead(thread);
+	    grantWrite(thread);
+	}
+
+	Lib.assertTrue(writer == thread);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Atomically turn the current thread's write hold into a read hold. If
+     * no writer is waiting, waiting readers are let in as well.
+     */
+    public void downgrade() {
+	Lib.assertTrue(isWriteHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+
+	revokeWrite(thread);
+	grantRead(thread);
+	admit();
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock for reading.
+     *
+     * @return	true if the current thread holds this lock for reading.
+     */
+    public boolean isReadHeldByCurrentThread() {
+	return readers.contains(KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+	return (writer == KThread.currentThread());
+    }
+
+    /**
+     * Test if the current thread holds this lock at all.
+     *
+     * @return	true if the current thread holds this lock.
+     */
+    public boolean isHeldByCurrentThread() {
+	return isReadHeldByCurrentThread() || isWriteHeldByCurrentThread();
+    }
+
+    /**
+     * Hand the lock to whichever waiting threads may now have it. Called
+     * with interrupts disabled whenever a hold is released or downgraded.
+     */
+    private void admit() {
+	if (writer != null)
+	    return;
+
+	if (upgrader != null) {
+	    // the upgrader waits only for the other readers to leave
+	    if (readers.size() == 1) {
+		KThread thread = upgradeQueue.nextThread();
+		Lib.assertTrue(thread == upgrader);
+		upgrader = null;
+
+		revokeRead(thread);
+		grantWrite(thread);
+		thread.ready();
+	    }
+	    return;
+	}
+
+	if (writersWaiting > 0) {
+	    if (readers.isEmpty()) {
+		KThread thread = writerQueue.nextThread();
+		writersWaiting--;
+
+		grantWrite(thread);
+		thread.ready();
+	    }
+	    return;
+	}
+
+	while (readersWaiting > 0) {
+	    KThread thread = readerQueue.nextThread();
+	    readersWaiting--;
+
+	    grantRead(thread);
+	    thread.ready();
+	}
+    }
+
+    /**
+     * Record that <i>thread</i> holds the lock for reading. Waiting writers
+     * and upgraders donate priority to every reader.
+     */
+    private void grantRead(KThread thread) {
+	readers.add(thread);
+	writerQueue.acquireShared(thread);
+	upgradeQueue.acquireShared(thread);
+    }
+
+    private void revokeRead(KThread thread) {
+	readers.remove(thread);
+	writerQueue.releaseShared(thread);
+	upgradeQueue.releaseShared(thread);
+    }
+
+    /**
+     * Record that <i>thread</i> holds the lock for writing. All waiting
+     * threads donate priority to the writer.
+     */
+    private void grantWrite(KThread thread) {
+	writer = thread;
+	writerQueue.acquireShared(thread);
+	readerQueue.acquireShared(thread);
+    }
+
+    private void revokeWrite(KThread thread) {
+	writer = null;
+	writerQueue.releaseShared(thread);
+	readerQueue.releaseShared(thread);
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	ReadWriteLockTest.runTest();
+    }
+
+    private KThread writer = null;
+    private LinkedList<KThread> readers = new LinkedList<KThread>();
+    private KThread upgrader = null;
+
+    private int readersWaiting = 0;
+    private int writersWaiting = 0;
+
+    private ThreadQueue readerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
+    private ThreadQueue writerQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
+    private ThreadQueue upgradeQueue =
+	ThreadedKernel.scheduler.newThreadQueue(true);
+}
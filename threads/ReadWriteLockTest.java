@@ -0,0 +1,181 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the ReadWriteLock class
+ */
+public class ReadWriteLockTest {
+
+    /**
+     * Worker class, which implements a thread that repeatedly holds the lock
+     * for a while, either for reading or for writing, and checks that no
+     * writer ever shares the lock.
+     */
+    private static class Worker implements Runnable {
+
+        /* Constructor */
+        Worker(String name, boolean isWriter, int howMany) {
+            this.name = name;
+            this.isWriter = isWriter;
+            this.howMany = howMany;
+        }
+
+        /** run() method for the Worker.
+         */
+        public void run() {
+            for (int i=0; i < howMany; i++) {
+                if (isWriter) {
+                    lock.acquireWrite();
+                    writersInside++;
+                    Lib.assertTrue(writersInside == 1 && readersInside == 0);
+                    spin(100);
+                    writersInside--;
+                    lock.releaseWrite();
+                }
+                else {
+                    lock.acquireRead();
+                    readersInside++;
+                    Lib.assertTrue(writersInside == 0);
+                    if (readersInside > maxReadersInside)
+                        maxReadersInside = readersInside;
+                    spin(200);
+                    readersInside--;
+                    lock.releaseRead();
+                }
+                KThread.yield();
+            }
+            System.out.println("** "+name+" done");
+        }
+
+        String name;
+        boolean isWriter;
+        int howMany;
+    }
+
+    /**
+     * Yield until at least <i>ticks</i> ticks have passed.
+     */
+    private static void spin(long ticks) {
+        long end = Machine.timer().getTime() + ticks;
+        while (Machine.timer().getTime() < end)
+            KThread.yield();
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void runTest() {
+        System.out.println("**** ReadWriteLock testing begins ****");
+
+        /* Readers overlap, writers are alone */
+        lock = new ReadWriteLock();
+        KThread workers[] = new KThread[5];
+        for (int i=0; i < workers.length; i++) {
+            boolean isWriter = (i % 3 == 2);
+            workers[i] = new KThread(new Worker((isWriter ? "Writer " : "Reader ")+i,
+                                                isWriter, 10));
+            workers[i].setName("RW-"+i);
+            workers[i].fork();
+        }
+        for (int i=0; i < workers.length; i++)
+            workers[i].join();
+        System.out.println("** at most "+maxReadersInside+" readers at once");
+        Lib.assertTrue(maxReadersInside > 1);
+
+        /* A waiting writer keeps new readers out */
+        lock.acquireRead();
+        final StringBuffer order = new StringBuffer();
+        KThread writer = new KThread(new Runnable() {
+                public void run() {
+                    lock.acquireWrite();
+                    order.append('W');
+                    lock.releaseWrite();
+                }
+            }).setName("Waiting writer");
+        KThread reader = new KThread(new Runnable() {
+                public void run() {
+                    lock.acquireRead();
+                    order.append('R');
+                    lock.releaseRead();
+                }
+            }).setName("Late reader");
+        writer.fork();
+        spin(100);
+        reader.fork();
+        spin(100);
+        Lib.assertTrue(order.length() == 0);
+        lock.releaseRead();
+        writer.join();
+        reader.join();
+        Lib.assertTrue(order.toString().equals("WR"));
+
+        /* Upgrade and downgrade */
+        lock.acquireRead();
+        Lib.assertTrue(lock.upgrade());
+        Lib.assertTrue(lock.isWriteHeldByCurrentThread());
+        lock.downgrade();
+        Lib.assertTrue(lock.isReadHeldByCurrentThread());
+        lock.releaseRead();
+
+        if (ThreadedKernel.scheduler instanceof PriorityScheduler)
+            donationTest();
+
+        System.out.println("**** ReadWriteLock testing ends ****");
+    }
+
+    /**
+     * A blocked writer must donate its priority to every reader.
+     */
+    private static void donationTest() {
+        final Semaphore done = new Semaphore(0);
+        KThread readers[] = new KThread[2];
+        for (int i=0; i < readers.length; i++) {
+            readers[i] = new KThread(new Runnable() {
+                    public void run() {
+                        lock.acquireRead();
+                        done.P();
+                        lock.releaseRead();
+                    }
+                }).setName("Low reader "+i);
+            readers[i].fork();
+        }
+        spin(100);
+
+        /* Lower the readers only once they hold the lock */
+        for (int i=0; i < readers.length; i++)
+            readers[i].setPriority(5);
+
+        KThread writer = new KThread(new Runnable() {
+                public void run() {
+                    lock.acquireWrite();
+                    lock.releaseWrite();
+                }
+            }).setName("High writer");
+        writer.setPriority(0);
+        writer.fork();
+        spin(100);
+
+        boolean intStatus = Machine.interrupt().disable();
+        for (int i=0; i < readers.length; i++)
+            Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority(readers[i]) == 0);
+        Machine.interrupt().restore(intStatus);
+        System.out.println("** both readers inherited priority 0");
+
+        for (int i=0; i < readers.length; i++)
+            done.V();
+        for (int i=0; i < readers.length; i++)
+            readers[i].join();
+        writer.join();
+
+        intStatus = Machine.interrupt().disable();
+        for (int i=0; i < readers.length; i++)
+            Lib.assertTrue(ThreadedKernel.scheduler.getEffectivePriority(readers[i]) == 5);
+        Machine.interrupt().restore(intStatus);
+    }
+
+    private static ReadWriteLock lock;
+    private static int readersInside = 0;
+    private static int writersInside = 0;
+    private static int maxReadersInside = 0;
+}
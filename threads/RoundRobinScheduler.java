@@ -69,6 +69,18 @@ public class RoundRobinScheduler extends Scheduler {
             Lib.assertTrue(waitQueue.isEmpty());
         }
 
+        /**
+         * Remove a thread from anywhere in the queue.
+         *
+         * @param       thread  the thread to remove.
+         * @return      <tt>true</tt> if the thread was in the queue.
+         */
+        public boolean remove(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            return waitQueue.remove(thread);
+        }
+
         /**
          * Print out the contents of the queue.
          */
@@ -131,6 +131,69 @@ public abstract class Scheduler {
 	setPriority(KThread.currentThread(), priority);
     }
 
+    /**
+     * Notify this scheduler that the processor is about to be handed from
+     * <i>previous</i> to <i>next</i>. Called by <tt>KThread.run()</tt> with
+     * interrupts disabled, immediately before the context switch. Schedulers
+     * that account for processor usage can override this method.
+     *
+     * @param	previous	the thread giving up the processor.
+     * @param	next		the thread about to receive the processor.
+     */
+    public void switchingThreads(KThread previous, KThread next) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+    }
+
+    /**
+     * Make the specified thread a periodic real-time thread. Every
+     * <i>period</i> ticks the thread is released to run a job, which may use
+     * at most <i>budget</i> ticks of processor time and must finish within
+     * <i>deadline</i> ticks of its release. A period of <tt>0</tt> returns
+     * the thread to best-effort scheduling. Must be called with interrupts
+     * disabled.
+     *
+     * <p>
+     * A scheduler that supports real-time threads may refuse the request if
+     * admitting the thread would make it impossible to meet every deadline.
+     * Schedulers without real-time support always refuse.
+     *
+     * @param	thread		the thread to make periodic.
+     * @param	period		the number of ticks between releases.
+     * @param	budget		the processor time allowed per release.
+     * @param	deadline	the number of ticks after each release by
+     *				which the job must finish.
+     * @return	<tt>true</tt> if the thread was admitted.
+     */
+    public boolean setDeadline(KThread thread, long period, long budget,
+			       long deadline) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+	return false;
+    }
+
+    /**
+     * Notify this scheduler that the specified real-time thread has finished
+     * its current job. Must be called with interrupts disabled.
+     *
+     * @param	thread	the thread that finished a job.
+     * @return	the number of ticks until the thread's next release, or
+     *		<tt>0</tt> if it need not wait.
+     */
+    public long finishJob(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+	return 0;
+    }
+
+    /**
+     * Notify this scheduler that the specified thread has finished and will
+     * never run again. Called by <tt>KThread.finish()</tt> with interrupts
+     * disabled.
+     *
+     * @param	thread	the thread that is finishing.
+     */
+    public void threadFinished(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+    }
+
     /**
      * If possible, raise the priority of the current thread in some
      * scheduler-dependent way.
@@ -28,7 +28,21 @@ public class Semaphore {
      * @param	initialValue	the initial value of this semaphore.
      */
     public Semaphore(int initialValue) {
+	this(initialValue, true);
+    }
+
+    /**
+     * Allocate a new semaphore, which is only profiled if <i>profiled</i> is
+     * set. Other primitives use this for the short-lived semaphores they
+     * are built from, so that only the primitive itself is profiled.
+     *
+     * @param	initialValue	the initial value of this semaphore.
+     * @param	profiled	<tt>false</tt> to exclude this semaphore from
+     *				lock profiling.
+     */
+    Semaphore(int initialValue, boolean profiled) {
 	value = initialValue;
+	profiler = profiled ? LockProfiler.create("Semaphore") : null;
     }
 
     /**
@@ -36,18 +50,54 @@ public class Semaphore {
      */
     public void P() {
 	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
+	boolean contended = (value == 0);
 
-	if (value == 0) {
+	if (contended) {
 	    waitQueue.waitForAccess(KThread.currentThread());
-	    KThread.sleep();
+	    KThread.sleep(ThreadStats.blockSemaphore);
 	}
 	else {
 	    value--;
 	}
 
+	if (profiler != null)
+	    profiler.acquired(contended, startTime);
+
 	Machine.interrupt().restore(intStatus);
     }
 
+    /**
+     * Atomically wait at most <i>timeout</i> ticks for this semaphore to
+     * become non-zero and decrement it.
+     *
+     * @param	timeout	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the semaphore was decremented, or
+     *		<tt>false</tt> if the wait timed out.
+     */
+    public boolean P(long timeout) {
+	boolean intStatus = Machine.interrupt().disable();
+	long startTime = (profiler != null) ? Machine.timer().getTime() : 0;
+	boolean contended = (value == 0);
+	boolean acquired = true;
+
+	if (contended) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    acquired = ThreadedKernel.alarm.waitOn(waitQueue, timeout,
+						   ThreadStats.blockSemaphore);
+	}
+	else {
+	    value--;
+	}
+
+	if (acquired && profiler != null)
+	    profiler.acquired(contended, startTime);
+
+	Machine.interrupt().restore(intStatus);
+
+	return acquired;
+    }
+
     /**
      * Atomically increment this semaphore and wake up at most one other thread
      * sleeping on this semaphore.
@@ -99,6 +149,7 @@ public class Semaphore {
     }
 
     private int value;
+    private LockProfiler profiler;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(false);
 }
@@ -91,6 +91,41 @@ public abstract class ThreadQueue {
      */
     public abstract void acquire(KThread thread);
 
+    /**
+     * Stop the specified thread from waiting for access, for example because
+     * a timed wait has expired. The thread will not be returned by
+     * <tt>nextThread()</tt> unless it calls <tt>waitForAccess()</tt> again.
+     *
+     * @param	thread	the thread to remove.
+     * @return	<tt>true</tt> if the thread was waiting in this queue, or
+     *		<tt>false</tt> if it had already been given access.
+     */
+    public abstract boolean remove(KThread thread);
+
+    /**
+     * Notify this thread queue that a thread has received access that it
+     * shares with other threads, such as a read lock. Every thread sharing
+     * access receives any priority donated by the waiting threads. Access
+     * is held until <tt>releaseShared()</tt> is called for the thread.
+     *
+     * <p>
+     * The default implementation does nothing, which is correct for queues
+     * that do not transfer priority.
+     *
+     * @param	thread	a thread that now shares access.
+     */
+    public void acquireShared(KThread thread) {
+    }
+
+    /**
+     * Notify this thread queue that a thread has given up access that it
+     * received through <tt>acquireShared()</tt>.
+     *
+     * @param	thread	a thread that no longer shares access.
+     */
+    public void releaseShared(KThread thread) {
+    }
+
     /**
      * Print out all the threads waiting for access, in no particular order.
      */
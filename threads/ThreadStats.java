@@ -0,0 +1,260 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedList;
+import java.util.Iterator;
+
+/**
+ * Scheduling statistics for a single <tt>KThread</tt>: how much processor
+ * time it received, how long it spent waiting on the ready queue, how often
+ * it gave up the processor voluntarily or was preempted, and why it blocked.
+ * The class also keeps a histogram of run-queue latency across all threads.
+ *
+ * <p>
+ * All times are in simulated ticks. The counters are updated by
+ * <tt>KThread</tt> with interrupts disabled, so they can be read at any time
+ * from kernel code, although a running thread's processor time is only
+ * brought up to date at context switches.
+ *
+ * @see	nachos.threads.KThread#getStats
+ */
+public class ThreadStats {
+    /**
+     * Allocate the statistics for a new thread. If <tt>print()</tt> has been
+     * enabled, remember them so that it can report on every thread created
+     * since; otherwise they are dropped along with the thread.
+     *
+     * @param	thread	the thread these statistics describe.
+     */
+    ThreadStats(KThread thread) {
+	this.thread = thread;
+
+	if (allStats != null)
+	    allStats.add(this);
+    }
+
+    /**
+     * Start remembering the statistics of every new thread, so that they can
+     * be reported by <tt>print()</tt>. Called by the kernel before the first
+     * thread is created, when the statistics are to be printed at halt.
+     */
+    static void enablePrint() {
+	if (allStats == null)
+	    allStats = new LinkedList<ThreadStats>();
+    }
+
+    /**
+     * Return the number of ticks the thread has run on the processor.
+     *
+     * @return	the processor time received by the thread.
+     */
+    public long getCPUTicks() {
+	return cpuTicks;
+    }
+
+    /**
+     * Return the number of ticks the thread has spent on the ready queue,
+     * waiting to be dispatched.
+     *
+     * @return	the total run-queue latency of the thread.
+     */
+    public long getReadyTicks() {
+	return readyTicks;
+    }
+
+    /**
+     * Return the number of times the thread gave up the processor by
+     * yielding, blocking or finishing.
+     *
+     * @return	the number of voluntary context switches.
+     */
+    public int getVoluntarySwitches() {
+	return voluntarySwitches;
+    }
+
+    /**
+     * Return the number of times the thread was preempted by the timer.
+     *
+     * @return	the number of involuntary context switches.
+     */
+    public int getInvoluntarySwitches() {
+	return involuntarySwitches;
+    }
+
+    /**
+     * Return the number of times the thread blocked for the specified
+     * reason.
+     *
+     * @param	reason	one of the <tt>block<i>*</i></tt> constants.
+     * @return	the number of times the thread blocked for this reason.
+     */
+    public int getBlocks(int reason) {
+	Lib.assertTrue(reason >= 0 && reason < numBlockReasons);
+	return blocks[reason];
+    }
+
+    /**
+     * Return a copy of the run-queue latency histogram. Entry <i>i</i>
+     * counts dispatches that waited less than <tt>2<sup>i</sup></tt> ticks
+     * but at least <tt>2<sup>i-1</sup></tt> ticks (entry 0 counts waits of 0
+     * ticks).
+     *
+     * @return	the run-queue latency histogram for all threads.
+     */
+    public static int[] getLatencyHistogram() {
+	int[] result = new int[latencyHistogram.length];
+	System.arraycopy(latencyHistogram, 0, result, 0, result.length);
+	return result;
+    }
+
+    /**
+     * Record that the thread was put on the ready queue.
+     */
+    void readied(long now) {
+	readySince = now;
+
+	// a running thread that yields is traced when it is descheduled
+	if (thread != KThread.currentThread())
+	    trace("ready");
+    }
+
+    /**
+     * Record that the thread gave up the processor.
+     */
+    void descheduled(long now, boolean preempted) {
+	cpuTicks += now - runningSince;
+
+	if (preempted)
+	    involuntarySwitches++;
+	else
+	    voluntarySwitches++;
+
+	if (readySince >= 0)
+	    trace("ready");
+	else if (blockReason >= 0)
+	    trace("blocked (" + blockReasonNames[blockReason] + ")");
+	else
+	    trace(null);
+	blockReason = -1;
+    }
+
+    /**
+     * Record that the thread received the processor.
+     */
+    void dispatched(long now) {
+	if (readySince >= 0) {
+	    long latency = now - readySince;
+	    readyTicks += latency;
+	    latencyHistogram[bucket(latency)]++;
+	    dispatchLatency.record(latency);
+	    readySince = -1;
+	}
+
+	runningSince = now;
+	trace("running");
+    }
+
+    /**
+     * Record that the thread blocked.
+     */
+    void blocked(int reason) {
+	blocks[reason]++;
+	blockReason = reason;
+    }
+
+    /**
+     * Start a new span on the thread's timeline track, if the timeline is
+     * enabled.
+     */
+    private void trace(String state) {
+	if (TimelineTrace.enabled())
+	    TimelineTrace.threadState(thread.getID(), thread.toString(), state);
+    }
+
+    private static int bucket(long latency) {
+	int i = 0;
+	while (latency > 0 && i < latencyHistogram.length-1) {
+	    latency >>= 1;
+	    i++;
+	}
+	return i;
+    }
+
+    /**
+     * Print the statistics of every thread created since
+     * <tt>enablePrint()</tt>, followed by the run-queue latency histogram.
+     * <tt>enablePrint()</tt> must have been called.
+     */
+    public static void print() {
+	Lib.assertTrue(allStats != null);
+
+	System.out.println("Thread statistics (cpu, ready, voluntary, "
+			   + "involuntary, blocks):");
+
+	for (Iterator<ThreadStats> i=allStats.iterator(); i.hasNext(); ) {
+	    ThreadStats stats = i.next();
+
+	    StringBuffer line = new StringBuffer();
+	    line.append("  " + stats.thread + ": " + stats.cpuTicks
+			+ ", " + stats.readyTicks
+			+ ", " + stats.voluntarySwitches
+			+ ", " + stats.involuntarySwitches + ",");
+	    for (int reason=0; reason<numBlockReasons; reason++) {
+		if (stats.blocks[reason] != 0)
+		    line.append(" " + blockReasonNames[reason] + "="
+				+ stats.blocks[reason]);
+	    }
+	    System.out.println(line);
+	}
+
+	System.out.println("Run-queue latency (ticks: dispatches):");
+	for (int i=0; i<latencyHistogram.length; i++) {
+	    if (latencyHistogram[i] != 0)
+		System.out.println("  <" + (1L<<i) + ": "
+				   + latencyHistogram[i]);
+	}
+    }
+
+    /** Blocked for a reason not listed below. */
+    public static final int blockOther = 0;
+    /** Blocked in <tt>Semaphore.P()</tt>. */
+    public static final int blockSemaphore = 1;
+    /** Blocked in <tt>Lock.acquire()</tt>. */
+    public static final int blockLock = 2;
+    /** Blocked in <tt>Condition2.sleep()</tt>. */
+    public static final int blockCondition = 3;
+    /** Blocked in <tt>KThread.join()</tt>. */
+    public static final int blockJoin = 4;
+    /** Blocked in <tt>Alarm.waitUntil()</tt>. */
+    public static final int blockAlarm = 5;
+    /** Blocked in <tt>Communicator.speak()</tt> or <tt>listen()</tt>. */
+    public static final int blockCommunicator = 6;
+
+    private static final int numBlockReasons = 7;
+    private static final String[] blockReasonNames = {
+	"other", "semaphore", "lock", "condition", "join", "alarm",
+	"communicator"
+    };
+
+    private KThread thread;
+
+    private long cpuTicks = 0;
+    private long readyTicks = 0;
+    private int voluntarySwitches = 0;
+    private int involuntarySwitches = 0;
+    private int[] blocks = new int[numBlockReasons];
+
+    /** When the thread was last put on the ready queue, or -1. */
+    private long readySince = -1;
+    /** When the thread was last dispatched. */
+    private long runningSince = 0;
+    /** Why the thread is blocking, or -1 if it is not. */
+    private int blockReason = -1;
+
+    /** Every thread's statistics, or null unless print() is enabled. */
+    private static LinkedList<ThreadStats> allStats = null;
+    private static int[] latencyHistogram = new int[32];
+    private static Metrics.Histogram dispatchLatency =
+	Metrics.histogram("threads.dispatchLatency");
+}
@@ -22,6 +22,10 @@ public class ThreadedKernel extends Kernel {
 	String schedulerName = Config.getString("ThreadedKernel.scheduler");
 	scheduler = (Scheduler) Lib.constructObject(schedulerName);
 
+	// profile synchronization primitives created from now on
+	if (Config.getBoolean("ThreadedKernel.lockProfile", false))
+	    LockProfiler.enable();
+
 	// set fileSystem
 	String fileSystemName = Config.getString("ThreadedKernel.fileSystem");
 	if (fileSystemName != null)
@@ -29,6 +33,15 @@ public class ThreadedKernel extends Kernel {
 	else if (Machine.stubFileSystem() != null) fileSystem = Machine.stubFileSystem(); else
 	    fileSystem = null;
 
+	// report per-thread statistics when the machine halts; threads are
+	// only remembered for the report if it is enabled before the first one
+	if (Config.getBoolean("ThreadedKernel.threadStats", false)) {
+	    ThreadStats.enablePrint();
+	    Machine.addHaltHandler(new Runnable() {
+		    public void run() { ThreadStats.print(); }
+		});
+	}
+
 	// start threading
 	new KThread(null);
 
@@ -45,11 +58,19 @@ public class ThreadedKernel extends Kernel {
 	//KThread.selfTest();
 	//KThread.simpleSelfTest();
 	//Semaphore.selfTest();
+	//ReadWriteLock.selfTest();
+	//Barrier.selfTest();
+	//CountDownLatch.selfTest();
+	//EventCount.selfTest();
+	//WorkQueue.selfTest();
         //Condition.selfTest();
         //Condition2.selfTest();
 	//Alarm.selfTest();
 	//Communicator.selfTest();
+	//BufferedCommunicator.selfTest();
 	PriorityScheduler.selfTest();
+	//FairShareScheduler.selfTest();
+	//DeadlineScheduler.selfTest();
     }
     
     /**
@@ -66,6 +87,25 @@ public class ThreadedKernel extends Kernel {
 	Machine.halt();
     }
 
+    /**
+     * Return the kernel's deferred-work queue, creating it and its worker
+     * threads on first use. The number of workers is given by
+     * <tt>ThreadedKernel.workerThreads</tt> (2 by default).
+     *
+     * @return	the kernel's work queue.
+     */
+    public static WorkQueue workQueue() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (workQueue == null) {
+	    workQueue = new WorkQueue("kernel",
+		Config.getInteger("ThreadedKernel.workerThreads", 2));
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return workQueue;
+    }
+
     /** Globally accessible reference to the scheduler. */
     public static Scheduler scheduler = null;
     /** Globally accessible reference to the alarm. */
@@ -73,6 +113,8 @@ public class ThreadedKernel extends Kernel {
     /** Globally accessible reference to the file system. */
     public static FileSystem fileSystem = null;
 
+    private static WorkQueue workQueue = null;
+
     // dummy variables to make javac smarter
     private static RoundRobinScheduler dummy1 = null;
     private static PriorityScheduler dummy2 = null;
@@ -81,4 +123,6 @@ public class ThreadedKernel extends Kernel {
     private static Communicator dummy5 = null;
     private static Rider dummy6 = null;
     private static ElevatorController dummy7 = null;
+    private static FairShareScheduler dummy8 = null;
+    private static DeadlineScheduler dummy9 = null;
 }
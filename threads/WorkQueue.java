@@ -0,0 +1,162 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+
+/**
+ * A queue of deferred work, run by a pool of kernel worker threads.
+ *
+ * <p>
+ * Interrupt handlers run with interrupts disabled and must not block, so they
+ * cannot acquire a <tt>Lock</tt> or wait on a full queue. Instead of doing
+ * such work inline, or waking a dedicated thread per device, a handler can
+ * pass a <tt>Runnable</tt> to <tt>schedule()</tt>, which only appends it to a
+ * list. A worker thread later takes every pending item in one batch and runs
+ * them with interrupts enabled, where they may block like any other kernel
+ * code.
+ *
+ * <p>
+ * Items are started in the order they were scheduled. With more than one
+ * worker, items in different batches may run concurrently, so an item that
+ * needs to be serialized with others must use its own locking.
+ */
+public class WorkQueue {
+    /**
+     * Allocate a new work queue and fork its worker threads.
+     *
+     * @param	name		the name of the queue, used to name its workers.
+     * @param	numWorkers	the number of worker threads.
+     */
+    public WorkQueue(String name, int numWorkers) {
+	Lib.assertTrue(numWorkers > 0);
+
+	for (int i=0; i<numWorkers; i++) {
+	    KThread worker = new KThread(new Runnable() {
+		    public void run() { work(); }
+		});
+	    worker.setName(name + " worker " + i).fork();
+	}
+    }
+
+    /**
+     * Add an item to the end of the queue, and wake an idle worker if there
+     * is one. Safe to call from an interrupt handler, since it never blocks.
+     *
+     * @param	item	the work to run. Must not be <tt>null</tt>.
+     */
+    public void schedule(Runnable item) {
+	Lib.assertTrue(item != null);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	pending.add(item);
+	numScheduled++;
+
+	if (numIdle > 0 && !waking) {
+	    // one worker is enough: it takes everything pending
+	    waking = true;
+	    numIdle--;
+	    idleWorkers.nextThread().ready();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of items that have been scheduled.
+     *
+     * @return	the number of calls to <tt>schedule()</tt>.
+     */
+    public long getNumScheduled() {
+	return numScheduled;
+    }
+
+    /**
+     * Return the number of batches the workers have run. The ratio of items
+     * to batches shows how much work each wakeup saves.
+     *
+     * @return	the number of batches run.
+     */
+    public long getNumBatches() {
+	return numBatches;
+    }
+
+    /**
+     * The body of each worker thread: repeatedly take the whole pending list
+     * and run it.
+     */
+    private void work() {
+	ArrayList<Runnable> batch = new ArrayList<Runnable>();
+
+	while (true) {
+	    boolean intStatus = Machine.interrupt().disable();
+
+	    while (pending.isEmpty()) {
+		numIdle++;
+		idleWorkers.waitForAccess(KThread.currentThread());
+		KThread.sleep(ThreadStats.blockOther);
+	    }
+	    waking = false;
+
+	    // swap lists, so the batch is taken without copying
+	    ArrayList<Runnable> items = pending;
+	    pending = batch;
+	    batch = items;
+	    numBatches++;
+
+	    Machine.interrupt().restore(intStatus);
+
+	    for (int i=0; i<batch.size(); i++)
+		batch.get(i).run();
+	    batch.clear();
+	}
+    }
+
+    private static class CountTest implements Runnable {
+	CountTest(int[] counter, Semaphore done) {
+	    this.counter = counter;
+	    this.done = done;
+	}
+
+	public void run() {
+	    counter[0]++;
+	    done.V();
+	}
+
+	private int[] counter;
+	private Semaphore done;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	WorkQueue queue = new WorkQueue("test", 2);
+	Semaphore done = new Semaphore(0);
+	int[] counter = new int[1];
+
+	// schedule a burst with interrupts disabled, as a handler would
+	boolean intStatus = Machine.interrupt().disable();
+	for (int i=0; i<10; i++)
+	    queue.schedule(new CountTest(counter, done));
+	Machine.interrupt().restore(intStatus);
+
+	for (int i=0; i<10; i++)
+	    done.P();
+
+	Lib.assertTrue(counter[0] == 10);
+	Lib.assertTrue(queue.getNumBatches() < queue.getNumScheduled());
+    }
+
+    private ArrayList<Runnable> pending = new ArrayList<Runnable>();
+
+    private ThreadQueue idleWorkers =
+	ThreadedKernel.scheduler.newThreadQueue(false);
+    private int numIdle = 0;
+    /** Set while a worker has been woken but has not yet taken the batch */
+    private boolean waking = false;
+
+    private long numScheduled = 0;
+    private long numBatches = 0;
+}
@@ -0,0 +1,289 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A kernel-side buffer over an <tt>OpenFile</tt> that supports random
+ * access. Every operation on a <tt>StubFileSystem</tt> file costs a
+ * fixed delay however many bytes it moves, so small reads and writes are
+ * coalesced into operations of a whole buffer.
+ *
+ * <p>
+ * The buffer holds one contiguous range of the file. A read inside the range
+ * is served from the buffer; a read outside it refills the buffer with one
+ * large read of the file. Writes that extend or overwrite the range are only
+ * copied into the buffer, and the modified part is written back when the
+ * buffer moves to another range, on <tt>flush()</tt> and on <tt>close()</tt>.
+ * Reads and writes of at least a whole buffer go to the file directly.
+ *
+ * <p>
+ * Because writes are delayed, a write error may only be reported by a later
+ * operation, and two <tt>BufferedFile</tt>s over the same file do not see
+ * each other's writes until they are flushed.
+ *
+ * <p>
+ * Each operation holds a lock on the buffer for its whole length, including
+ * any delay in the underlying file, so several kernel threads can use one
+ * <tt>BufferedFile</tt>; their operations are performed one at a time.
+ */
+public class BufferedFile extends OpenFileWithPosition {
+    /**
+     * Allocate a new buffer over <i>file</i>.
+     *
+     * @param	file		the file to buffer.
+     * @param	bufferSize	the size of the buffer, in bytes.
+     */
+    public BufferedFile(OpenFile file, int bufferSize) {
+	super(file.getFileSystem(), file.getName());
+
+	Lib.assertTrue(bufferSize > 0);
+
+	this.file = file;
+	buffer = new byte[bufferSize];
+    }
+
+    public int read(int pos, byte[] buf, int offset, int length) {
+	lock.acquire();
+	int amount = readBuffered(pos, buf, offset, length);
+	lock.release();
+
+	return amount;
+    }
+
+    private int readBuffered(int pos, byte[] buf, int offset, int length) {
+	if (file == null || pos < 0 || length < 0)
+	    return -1;
+
+	int amount = 0;
+	while (amount < length) {
+	    int position = pos+amount;
+
+	    if (position < bufferStart || position >= bufferStart+bufferLength) {
+		if (!writeBack())
+		    return -1;
+
+		// large reads bypass the buffer
+		if (length-amount >= buffer.length) {
+		    int read = file.read(position, buf, offset+amount,
+					 length-amount);
+		    if (read == -1)
+			return (amount > 0) ? amount : -1;
+
+		    return amount + read;
+		}
+
+		bufferStart = position;
+		bufferLength = Math.max(0, file.read(position, buffer, 0,
+						     buffer.length));
+		if (bufferLength == 0)
+		    break;
+	    }
+
+	    int chunk = Math.min(length-amount,
+				 bufferStart+bufferLength-position);
+	    System.arraycopy(buffer, position-bufferStart,
+			     buf, offset+amount, chunk);
+	    amount += chunk;
+	}
+
+	return amount;
+    }
+
+    public int write(int pos, byte[] buf, int offset, int length) {
+	lock.acquire();
+	int amount = writeBuffered(pos, buf, offset, length);
+	lock.release();
+
+	return amount;
+    }
+
+    private int writeBuffered(int pos, byte[] buf, int offset, int length) {
+	if (file == null || pos < 0 || length < 0)
+	    return -1;
+
+	int amount = 0;
+	while (amount < length) {
+	    int position = pos+amount;
+
+	    // a write may overwrite the buffered range or extend it, as long as
+	    // it leaves no gap
+	    if (position < bufferStart || position > bufferStart+bufferLength ||
+		position == bufferStart+buffer.length) {
+		if (!writeBack())
+		    return (amount > 0) ? amount : -1;
+
+		// large writes bypass the buffer, which may hold some of the
+		// bytes they overwrite
+		if (length-amount >= buffer.length) {
+		    bufferLength = 0;
+
+		    int written = file.write(position, buf, offset+amount,
+					     length-amount);
+		    if (written == -1)
+			return (amount > 0) ? amount : -1;
+
+		    return amount + written;
+		}
+
+		bufferStart = position;
+		bufferLength = 0;
+	    }
+
+	    int start = position-bufferStart;
+	    int chunk = Math.min(length-amount, buffer.length-start);
+	    System.arraycopy(buf, offset+amount, buffer, start, chunk);
+
+	    bufferLength = Math.max(bufferLength, start+chunk);
+	    if (dirtyStart == dirtyEnd) {
+		dirtyStart = start;
+		dirtyEnd = start+chunk;
+	    }
+	    else {
+		dirtyStart = Math.min(dirtyStart, start);
+		dirtyEnd = Math.max(dirtyEnd, start+chunk);
+	    }
+
+	    amount += chunk;
+	}
+
+	return amount;
+    }
+
+    /**
+     * Write the modified part of the buffer back to the file.
+     *
+     * @return	<tt>true</tt> if the buffer was written back completely.
+     */
+    public boolean flush() {
+	lock.acquire();
+	boolean flushed = writeBack();
+	lock.release();
+
+	return flushed;
+    }
+
+    private boolean writeBack() {
+	if (dirtyStart == dirtyEnd)
+	    return true;
+
+	int length = dirtyEnd-dirtyStart;
+	int written = file.write(bufferStart+dirtyStart, buffer, dirtyStart,
+				 length);
+	dirtyStart = dirtyEnd = 0;
+
+	if (written != length) {
+	    // forget the range, so later reads see what reached the file
+	    bufferLength = 0;
+	    return false;
+	}
+
+	return true;
+    }
+
+    public int length() {
+	lock.acquire();
+
+	int length = -1;
+	if (file != null) {
+	    length = file.length();
+	    if (dirtyStart != dirtyEnd)
+		length = Math.max(length, bufferStart+bufferLength);
+	}
+
+	lock.release();
+
+	return length;
+    }
+
+    /**
+     * Flush the buffer and close the underlying file.
+     */
+    public void close() {
+	lock.acquire();
+
+	if (file != null) {
+	    writeBack();
+	    file.close();
+	    file = null;
+	}
+
+	lock.release();
+    }
+
+    /**
+     * A growable file in memory, for testing.
+     */
+    private static class MemoryFile extends OpenFileWithPosition {
+	public int length() {
+	    return length;
+	}
+
+	public int read(int pos, byte[] buf, int offset, int length) {
+	    int amount = Math.max(0, Math.min(length, this.length-pos));
+	    System.arraycopy(contents, pos, buf, offset, amount);
+	    numOperations++;
+	    return amount;
+	}
+
+	public int write(int pos, byte[] buf, int offset, int length) {
+	    if (pos+length > contents.length) {
+		byte[] larger = new byte[2*(pos+length)];
+		System.arraycopy(contents, 0, larger, 0, this.length);
+		contents = larger;
+	    }
+
+	    System.arraycopy(buf, offset, contents, pos, length);
+	    this.length = Math.max(this.length, pos+length);
+	    numOperations++;
+	    return length;
+	}
+
+	byte[] contents = new byte[0];
+	int length = 0;
+	int numOperations = 0;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+	MemoryFile memory = new MemoryFile();
+	BufferedFile file = new BufferedFile(memory, 4096);
+
+	// small writes are coalesced
+	byte[] one = new byte[1];
+	for (int i=0; i<100; i++) {
+	    one[0] = (byte) i;
+	    Lib.assertTrue(file.write(i, one, 0, 1) == 1);
+	}
+	Lib.assertTrue(memory.numOperations == 0);
+	Lib.assertTrue(file.length() == 100);
+	Lib.assertTrue(file.flush() && memory.numOperations == 1);
+	Lib.assertTrue(memory.contents[99] == 99);
+
+	// a write around the buffer must not leave stale bytes in it
+	byte[] zeros = new byte[8192];
+	Lib.assertTrue(file.write(0, zeros, 0, zeros.length) == zeros.length);
+	Lib.assertTrue(file.read(4096, one, 0, 1) == 1 && one[0] == 0);
+
+	byte[] sevens = new byte[8192];
+	java.util.Arrays.fill(sevens, (byte) 7);
+	Lib.assertTrue(file.write(0, sevens, 0, sevens.length) == sevens.length);
+	Lib.assertTrue(file.read(5000, one, 0, 1) == 1 && one[0] == 7);
+	Lib.assertTrue(file.read(50, one, 0, 1) == 1 && one[0] == 7);
+
+	file.close();
+    }
+
+    private OpenFile file;
+    private byte[] buffer;
+    private Lock lock = new Lock();
+
+    /** The file position of the first byte in the buffer */
+    private int bufferStart = 0;
+    /** The number of valid bytes in the buffer */
+    private int bufferLength = 0;
+    /** The modified part of the buffer, empty if <tt>dirtyStart == dirtyEnd</tt> */
+    private int dirtyStart = 0, dirtyEnd = 0;
+}
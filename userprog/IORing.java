@@ -0,0 +1,312 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+import nachos.userprog.*;
+
+/**
+ * A pair of submission and completion rings, shared between a user process
+ * and the kernel, for asynchronous I/O.
+ *
+ * <p>
+ * The rings live in the process's own memory, starting with a header of four
+ * indexes: the submission head and tail, and the completion head and tail.
+ * The submission ring follows the header, and the completion ring follows the
+ * submission ring; both have the same power-of-two number of entries. The
+ * process adds submissions and advances the submission tail, and consumes
+ * completions and advances the completion head; the kernel advances the other
+ * two indexes. Indexes only ever increase, and an entry's slot is its index
+ * modulo the size of the ring.
+ *
+ * <p>
+ * One <tt>ioenter()</tt> call hands every new submission to a pool of kernel
+ * worker threads and returns without waiting, unless the process asks to
+ * wait for completions. The workers perform the operations concurrently, so
+ * the delays of many file system and console operations overlap, and post
+ * each completion directly into the completion ring, without a trap.
+ *
+ * <p>
+ * A submission is only taken while the completion ring has room for its
+ * result, counting results already posted and operations still in flight, so
+ * a completion is never lost. Operations on one file are performed one at a
+ * time by the file itself; operations on different files overlap.
+ */
+public class IORing {
+    /**
+     * Set up a new pair of rings in a process's memory. The whole ring area
+     * is cleared.
+     *
+     * @param	process	the process that owns the rings.
+     * @param	address	the virtual address of the ring header.
+     * @param	entries	the number of entries in each ring, a power of two no
+     *			larger than 256.
+     * @return	the new rings, or <tt>null</tt> if <i>entries</i> is invalid
+     *		or the ring area is not writable.
+     */
+    public static IORing setup(UserProcess process, int address, int entries) {
+	if (entries <= 0 || entries > maxEntries || (entries & (entries-1)) != 0)
+	    return null;
+
+	byte[] area = new byte[headerSize + entries*(submissionSize+completionSize)];
+	if (process.writeVirtualMemory(address, area) != area.length)
+	    return null;
+
+	startWorkers();
+
+	return new IORing(process, address, entries);
+    }
+
+    private IORing(UserProcess process, int address, int entries) {
+	this.process = process;
+	this.address = address;
+	this.entries = entries;
+
+	submissionRing = address + headerSize;
+	completionRing = submissionRing + entries*submissionSize;
+    }
+
+    /**
+     * Submit every new entry of the submission ring, as far as the completion
+     * ring has room, and then wait until at least <i>minComplete</i>
+     * completions are waiting to be consumed, or no operation is in flight.
+     *
+     * @param	minComplete	the number of completions to wait for, or 0 to
+     *				return at once.
+     * @return	the number of submissions taken, or -1 if the ring header or
+     *		a submission could not be accessed, or the indexes are
+     *		inconsistent.
+     */
+    public int enter(int minComplete) {
+	int submitted = -1;
+
+	lock.acquire();
+
+	byte[] header = new byte[headerSize];
+	if (process.readVirtualMemory(address, header) == headerSize) {
+	    int sqTail = Lib.bytesToInt(header, offsetSqTail);
+	    int cqHead = Lib.bytesToInt(header, offsetCqHead);
+
+	    int waiting = sqTail - sqHead;
+	    int posted = cqTail - cqHead;
+
+	    if (waiting >= 0 && waiting <= entries &&
+		posted >= 0 && posted <= entries) {
+		submitted = submit(Math.min(waiting, entries - posted - inFlight));
+
+		while (submitted != -1 && cqTail - cqHead < minComplete &&
+		       inFlight > 0)
+		    completed.sleep();
+	    }
+	}
+
+	lock.release();
+
+	return submitted;
+    }
+
+    /**
+     * Read up to <i>count</i> submissions, queue them for the workers, and
+     * advance the submission head. Called with the ring lock held.
+     *
+     * @return	the number of submissions queued, or -1 if the first one could
+     *		not be read.
+     */
+    private int submit(int count) {
+	byte[] entry = new byte[submissionSize];
+
+	int submitted = 0;
+	while (submitted < count) {
+	    int vaddr = submissionRing + (sqHead & (entries-1))*submissionSize;
+	    if (process.readVirtualMemory(vaddr, entry) != submissionSize)
+		break;
+
+	    inFlight++;
+	    operations.add(new Operation(entry));
+
+	    sqHead++;
+	    submitted++;
+	}
+
+	if (submitted == 0 && count > 0)
+	    return -1;
+
+	Lib.bytesFromInt(header4, 0, sqHead);
+	process.writeVirtualMemory(address+offsetSqHead, header4);
+
+	return submitted;
+    }
+
+    /**
+     * Post the result of an operation to the completion ring, and wake the
+     * process if it is waiting in <tt>enter()</tt>. Called by a worker.
+     */
+    private void complete(int userData, int result) {
+	lock.acquire();
+
+	byte[] entry = new byte[completionSize];
+	Lib.bytesFromInt(entry, 0, userData);
+	Lib.bytesFromInt(entry, 4, result);
+
+	int vaddr = completionRing + (cqTail & (entries-1))*completionSize;
+	process.writeVirtualMemory(vaddr, entry);
+
+	cqTail++;
+	Lib.bytesFromInt(header4, 0, cqTail);
+	process.writeVirtualMemory(address+offsetCqTail, header4);
+
+	inFlight--;
+	completed.wakeAll();
+
+	lock.release();
+    }
+
+    /**
+     * One submitted operation, copied out of the submission ring.
+     */
+    private class Operation {
+	Operation(byte[] entry) {
+	    opcode = Lib.bytesToInt(entry, 0);
+	    fd = Lib.bytesToInt(entry, 4);
+	    buffer = Lib.bytesToInt(entry, 8);
+	    length = Lib.bytesToInt(entry, 12);
+	    position = Lib.bytesToInt(entry, 16);
+	    userData = Lib.bytesToInt(entry, 20);
+	}
+
+	/**
+	 * Perform this operation, copying through the worker's kernel buffer
+	 * a page at a time, and post its result.
+	 */
+	void run(byte[] kernelBuffer) {
+	    complete(userData, perform(kernelBuffer));
+	}
+
+	private int perform(byte[] kernelBuffer) {
+	    if (opcode == opNop)
+		return 0;
+
+	    OpenFile file = process.getFile(fd);
+	    if (file == null || length < 0 || position < -1 ||
+		(opcode != opRead && opcode != opWrite))
+		return -1;
+
+	    int total = 0;
+	    while (total < length) {
+		int chunk = Math.min(length-total, kernelBuffer.length);
+		int amount;
+
+		if (opcode == opRead) {
+		    amount = transfer(file, false, total, kernelBuffer, chunk);
+		    if (amount == -1)
+			return -1;
+
+		    if (process.writeVirtualMemory(buffer+total, kernelBuffer,
+						   0, amount) != amount)
+			return -1;
+		}
+		else {
+		    if (process.readVirtualMemory(buffer+total, kernelBuffer,
+						  0, chunk) != chunk)
+			return -1;
+
+		    amount = transfer(file, true, total, kernelBuffer, chunk);
+		    if (amount == -1)
+			return -1;
+		}
+
+		total += amount;
+		if (amount < chunk)
+		    break;
+	    }
+
+	    return total;
+	}
+
+	/**
+	 * Read or write one chunk, at the file's current position if this
+	 * operation's position is -1, and otherwise at the given position.
+	 */
+	private int transfer(OpenFile file, boolean write, int done,
+			     byte[] kernelBuffer, int chunk) {
+	    if (position == -1) {
+		return write ? file.write(kernelBuffer, 0, chunk)
+			     : file.read(kernelBuffer, 0, chunk);
+	    }
+	    else {
+		return write ? file.write(position+done, kernelBuffer, 0, chunk)
+			     : file.read(position+done, kernelBuffer, 0, chunk);
+	    }
+	}
+
+	private int opcode, fd, buffer, length, position, userData;
+    }
+
+    /**
+     * Fork the shared worker threads, the first time a ring is set up. The
+     * number of workers is specified by the <tt>nachos.conf</tt> key
+     * <tt>Kernel.ioRingWorkers</tt>.
+     */
+    private static void startWorkers() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (operations == null) {
+	    operations = new SynchList();
+
+	    int numWorkers = Config.getInteger("Kernel.ioRingWorkers", 4);
+	    Lib.assertTrue(numWorkers > 0);
+
+	    for (int i=0; i<numWorkers; i++) {
+		KThread worker = new KThread(new Runnable() {
+			public void run() { work(); }
+		    });
+		worker.setName("io ring worker " + i).fork();
+	    }
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * The body of each worker thread: perform queued operations one at a
+     * time, from any ring.
+     */
+    private static void work() {
+	byte[] kernelBuffer = new byte[Processor.pageSize];
+
+	while (true)
+	    ((Operation) operations.removeFirst()).run(kernelBuffer);
+    }
+
+    private UserProcess process;
+    private int address, entries;
+    private int submissionRing, completionRing;
+
+    /** The kernel's copies of the indexes only the kernel advances */
+    private int sqHead = 0, cqTail = 0;
+    /** The number of operations submitted but not yet completed */
+    private int inFlight = 0;
+
+    private Lock lock = new Lock();
+    private Condition completed = new Condition(lock);
+    private byte[] header4 = new byte[4];
+
+    /** Operations waiting for a worker, shared by every ring */
+    private static SynchList operations = null;
+
+    private static final int maxEntries = 256;
+
+    /** The size of the header: sqHead, sqTail, cqHead, cqTail */
+    private static final int headerSize = 16;
+    private static final int offsetSqHead = 0;
+    private static final int offsetSqTail = 4;
+    private static final int offsetCqHead = 8;
+    private static final int offsetCqTail = 12;
+    /** The size of a submission: opcode, fd, buffer, length, position, userData */
+    private static final int submissionSize = 24;
+    /** The size of a completion: userData, result */
+    private static final int completionSize = 8;
+
+    private static final int opNop = 0;
+    private static final int opRead = 1;
+    private static final int opWrite = 2;
+}
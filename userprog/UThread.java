@@ -33,6 +33,15 @@ public class UThread extends KThread {
 	Lib.assertNotReached();
     }
     
+    /**
+     * Return the ID of this thread's process.
+     *
+     * @return	the process ID.
+     */
+    public int getProcessID() {
+	return process.getProcessID();
+    }
+
     /**
      * Save state before giving up the processor to another thread.
      */
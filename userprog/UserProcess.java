@@ -4,6 +4,7 @@ import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 
 /**
@@ -24,9 +25,26 @@ public class UserProcess {
      */
     public UserProcess() {
 	int numPhysPages = Machine.processor().getNumPhysPages();
-	pageTable = new TranslationEntry[numPhysPages];
+	pageTable = new PackedPageTable(numPhysPages);
 	for (int i=0; i<numPhysPages; i++)
-	    pageTable[i] = new TranslationEntry(i,i, true,false,false,false);
+	    pageTable.map(i, i, false);
+
+	boolean intStatus = Machine.interrupt().disable();
+	processID = nextProcessID++;
+	Machine.interrupt().restore(intStatus);
+
+	fileTable[fdStandardInput] = UserKernel.console.openForReading();
+	fileTable[fdStandardOutput] = UserKernel.console.openForWriting();
+    }
+
+    /**
+     * Return the ID of this process. IDs are assigned in order of creation,
+     * starting at 0, and are never reused.
+     *
+     * @return	the process ID.
+     */
+    public int getProcessID() {
+	return processID;
     }
     
     /**
@@ -73,11 +91,11 @@ public class UserProcess {
     }
 
     /**
-     * Read a null-terminated string from this process's virtual memory. Read
-     * at most <tt>maxLength + 1</tt> bytes from the specified address, search
-     * for the null terminator, and convert it to a <tt>java.lang.String</tt>,
-     * without including the null terminator. If no null terminator is found,
-     * returns <tt>null</tt>.
+     * Read a null-terminated string from this process's virtual memory. Scan
+     * at most <tt>maxLength + 1</tt> bytes from the specified address for the
+     * null terminator, a page at a time, stopping as soon as it is found, and
+     * convert the bytes before it to a <tt>java.lang.String</tt>. If no null
+     * terminator is found, returns <tt>null</tt>.
      *
      * @param	vaddr	the starting virtual address of the null-terminated
      *			string.
@@ -89,13 +107,28 @@ public class UserProcess {
     public String readVirtualMemoryString(int vaddr, int maxLength) {
 	Lib.assertTrue(maxLength >= 0);
 
-	byte[] bytes = new byte[maxLength+1];
-
-	int bytesRead = readVirtualMemory(vaddr, bytes);
+	byte[] memory = Machine.processor().getMemory();
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+	long remaining = (long) maxLength + 1;
+	while (remaining > 0) {
+	    int paddr = translate(vaddr, false);
+	    if (paddr < 0)
+		return null;
+
+	    int amount = (int) Math.min(remaining,
+					pageSize - Processor.offsetFromAddress(vaddr));
+
+	    for (int i=0; i<amount; i++) {
+		if (memory[paddr+i] == 0) {
+		    bytes.write(memory, paddr, i);
+		    return bytes.toString();
+		}
+	    }
 
-	for (int length=0; length<bytesRead; length++) {
-	    if (bytes[length] == 0)
-		return new String(bytes, 0, length);
+	    bytes.write(memory, paddr, amount);
+	    vaddr += amount;
+	    remaining -= amount;
 	}
 
 	return null;
@@ -120,6 +153,10 @@ public class UserProcess {
      * should return the number of bytes successfully copied (or zero if no
      * data could be copied).
      *
+     * <p>
+     * The transfer walks this process's page table and copies one page at a
+     * time, stopping at the first page that is not mapped.
+     *
      * @param	vaddr	the first byte of virtual memory to read.
      * @param	data	the array where the data will be stored.
      * @param	offset	the first byte to write in the array.
@@ -132,15 +169,20 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
 	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
 
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(memory, vaddr, data, offset, amount);
+	int transferred = 0;
+	while (transferred < length) {
+	    int paddr = translate(vaddr+transferred, false);
+	    if (paddr < 0)
+		break;
+
+	    int amount = Math.min(length-transferred,
+				  pageSize - Processor.offsetFromAddress(paddr));
+	    System.arraycopy(memory, paddr, data, offset+transferred, amount);
+	    transferred += amount;
+	}
 
-	return amount;
+	return transferred;
     }
 
     /**
@@ -163,6 +205,10 @@ public class UserProcess {
      * should return the number of bytes successfully copied (or zero if no
      * data could be copied).
      *
+     * <p>
+     * The transfer walks this process's page table and copies one page at a
+     * time, stopping at the first page that is not mapped or is read-only.
+     *
      * @param	vaddr	the first byte of virtual memory to write.
      * @param	data	the array containing the data to transfer.
      * @param	offset	the first byte to transfer from the array.
@@ -175,15 +221,41 @@ public class UserProcess {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
 	byte[] memory = Machine.processor().getMemory();
-	
-	// for now, just assume that virtual addresses equal physical addresses
-	if (vaddr < 0 || vaddr >= memory.length)
-	    return 0;
 
-	int amount = Math.min(length, memory.length-vaddr);
-	System.arraycopy(data, offset, memory, vaddr, amount);
+	int transferred = 0;
+	while (transferred < length) {
+	    int paddr = translate(vaddr+transferred, true);
+	    if (paddr < 0)
+		break;
+
+	    int amount = Math.min(length-transferred,
+				  pageSize - Processor.offsetFromAddress(paddr));
+	    System.arraycopy(data, offset+transferred, memory, paddr, amount);
+	    transferred += amount;
+	}
 
-	return amount;
+	return transferred;
+    }
+
+    /**
+     * Translate a virtual address of this process to a physical address,
+     * using the page table, and mark the page used (and dirty, if it is being
+     * written), as the processor would.
+     *
+     * @param	vaddr	the virtual address to translate.
+     * @param	write	<tt>true</tt> if the address is being written.
+     * @return	the physical address, or -1 if the page is not mapped, or is
+     *		read-only and <i>write</i> is set.
+     */
+    protected int translate(int vaddr, boolean write) {
+	if (vaddr < 0 || pageTable == null)
+	    return -1;
+
+	int ppn = pageTable.translate(Processor.pageFromAddress(vaddr), write);
+	if (ppn < 0 || ppn >= Machine.processor().getNumPhysPages())
+	    return -1;
+
+	return Processor.makeAddress(ppn, Processor.offsetFromAddress(vaddr));
     }
 
     /**
@@ -207,6 +279,7 @@ public class UserProcess {
 
 	try {
 	    coff = new Coff(executable);
+	    executableName = name;
 	}
 	catch (EOFException e) {
 	    executable.close();
@@ -336,9 +409,14 @@ public class UserProcess {
     }
 
     /**
-     * Handle the halt() system call. 
+     * Handle the halt() system call. Data still buffered for files that were
+     * never closed is written back first.
      */
     private int handleHalt() {
+	for (int fd=0; fd<fileTable.length; fd++) {
+	    if (fileTable[fd] instanceof BufferedFile)
+		((BufferedFile) fileTable[fd]).flush();
+	}
 
 	Machine.halt();
 	
@@ -347,6 +425,323 @@ public class UserProcess {
     }
 
 
+    /**
+     * Handle the creat() and open() system calls.
+     *
+     * @param	nameAddress	the virtual address of the file name.
+     * @param	create		<tt>true</tt> to create the file if it does not
+     *				exist, and truncate it if it does.
+     * @return	the new file descriptor, or -1 on error.
+     */
+    private int handleOpen(int nameAddress, boolean create) {
+	String name = readVirtualMemoryString(nameAddress, maxNameLength);
+	if (name == null)
+	    return -1;
+
+	int fd = freeDescriptor();
+	if (fd == -1)
+	    return -1;
+
+	OpenFile file = ThreadedKernel.fileSystem.open(name, create);
+	if (file == null)
+	    return -1;
+
+	fileTable[fd] = new BufferedFile(file, fileBufferSize);
+	return fd;
+    }
+
+    /**
+     * Handle the read() system call.
+     */
+    private int handleRead(int fd, int bufferAddress, int count) {
+	OpenFile file = getFile(fd);
+	if (file == null || count < 0)
+	    return -1;
+
+	return readFile(file, bufferAddress, count);
+    }
+
+    /**
+     * Handle the write() system call.
+     */
+    private int handleWrite(int fd, int bufferAddress, int count) {
+	OpenFile file = getFile(fd);
+	if (file == null || count < 0)
+	    return -1;
+
+	return writeFile(file, bufferAddress, count);
+    }
+
+    /**
+     * Read from a file into user memory. Data is copied from the file into a
+     * one-page kernel buffer, and from there into user memory, a page at a
+     * time.
+     *
+     * @return	the number of bytes read, or -1 if an error occurred before
+     *		any were.
+     */
+    private int readFile(OpenFile file, int bufferAddress, int count) {
+	int total = 0;
+	while (total < count) {
+	    int amount = file.read(ioBuffer, 0,
+				   Math.min(count-total, ioBuffer.length));
+	    if (amount == -1)
+		return (total > 0) ? total : -1;
+
+	    // report whatever reached user memory; the rest of this chunk has
+	    // already been taken from the file and is lost
+	    int copied = writeVirtualMemory(bufferAddress+total, ioBuffer, 0,
+					    amount);
+	    total += copied;
+	    if (copied != amount)
+		return (total > 0) ? total : -1;
+
+	    // end of file, or no more data available from a stream
+	    if (amount < ioBuffer.length)
+		break;
+	}
+
+	return total;
+    }
+
+    /**
+     * Write from user memory to a file. Data is copied from user memory into
+     * a one-page kernel buffer, and from there to the file, a page at a time.
+     *
+     * @return	the number of bytes written, or -1 if an error occurred before
+     *		any were.
+     */
+    private int writeFile(OpenFile file, int bufferAddress, int count) {
+	int total = 0;
+	while (total < count) {
+	    int length = Math.min(count-total, ioBuffer.length);
+	    // write whatever part of the chunk could be read from user memory
+	    int copied = readVirtualMemory(bufferAddress+total, ioBuffer, 0,
+					   length);
+
+	    int amount = (copied > 0) ? file.write(ioBuffer, 0, copied) : -1;
+	    if (amount == -1)
+		return (total > 0) ? total : -1;
+
+	    total += amount;
+	    if (amount < length)
+		break;
+	}
+
+	return total;
+    }
+
+    /**
+     * Handle the readv() and writev() system calls. The whole iovec array is
+     * copied into the kernel with one transfer, and then each buffer is read
+     * or written in turn.
+     *
+     * @param	fd		the file descriptor.
+     * @param	iovAddress	the virtual address of the iovec array.
+     * @param	iovCount	the number of entries in the array.
+     * @param	write		<tt>true</tt> for writev().
+     * @return	the total number of bytes transferred, or -1 if an error
+     *		occurred before any were.
+     */
+    private int handleVector(int fd, int iovAddress, int iovCount,
+			     boolean write) {
+	OpenFile file = getFile(fd);
+	if (file == null || iovCount < 0 || iovCount > maxVectorLength)
+	    return -1;
+
+	byte[] iov = new byte[iovCount*iovecSize];
+	if (readVirtualMemory(iovAddress, iov) != iov.length)
+	    return -1;
+
+	// reject a bad length before any data is moved
+	for (int i=0; i<iovCount; i++) {
+	    if (Lib.bytesToInt(iov, i*iovecSize+4) < 0)
+		return -1;
+	}
+
+	int total = 0;
+	for (int i=0; i<iovCount; i++) {
+	    int base = Lib.bytesToInt(iov, i*iovecSize);
+	    int length = Lib.bytesToInt(iov, i*iovecSize+4);
+
+	    int amount = write ? writeFile(file, base, length)
+			       : readFile(file, base, length);
+	    if (amount == -1)
+		return (total > 0) ? total : -1;
+
+	    total += amount;
+	    if (amount < length)
+		break;
+	}
+
+	return total;
+    }
+
+    /**
+     * Handle the batch() system call. The request array is copied into the
+     * kernel with one transfer, each request is passed to
+     * <tt>handleSyscall()</tt>, and the results are copied back with one
+     * transfer.
+     *
+     * @param	requestAddress	the virtual address of the request array.
+     * @param	count		the number of requests.
+     * @return	the number of requests performed, or -1 on error.
+     */
+    private int handleBatch(int requestAddress, int count) {
+	if (count < 0 || count > maxBatchLength)
+	    return -1;
+
+	byte[] requests = new byte[count*requestSize];
+	if (readVirtualMemory(requestAddress, requests) != requests.length)
+	    return -1;
+
+	for (int i=0; i<count; i++) {
+	    int offset = i*requestSize;
+	    int syscall = Lib.bytesToInt(requests, offset);
+
+	    int result = -1;
+	    if (syscall != syscallBatch) {
+		result = handleSyscall(syscall,
+				       Lib.bytesToInt(requests, offset+4),
+				       Lib.bytesToInt(requests, offset+8),
+				       Lib.bytesToInt(requests, offset+12),
+				       Lib.bytesToInt(requests, offset+16));
+	    }
+
+	    Lib.bytesFromInt(requests, offset+20, result);
+	}
+
+	if (writeVirtualMemory(requestAddress, requests) != requests.length)
+	    return -1;
+
+	return count;
+    }
+
+    /**
+     * Handle the iosetup() system call. A process has at most one pair of
+     * rings.
+     */
+    private int handleIOSetup(int ringAddress, int entries) {
+	if (ioRing != null)
+	    return -1;
+
+	ioRing = IORing.setup(this, ringAddress, entries);
+	return (ioRing != null) ? 0 : -1;
+    }
+
+    /**
+     * Handle the ioenter() system call.
+     */
+    private int handleIOEnter(int minComplete) {
+	if (ioRing == null)
+	    return -1;
+
+	return ioRing.enter(minComplete);
+    }
+
+    /**
+     * Handle the close() system call. Any memory maps of the file are removed
+     * first.
+     */
+    private int handleClose(int fd) {
+	if (fd < 0 || fd >= fileTable.length || fileTable[fd] == null)
+	    return -1;
+
+	// report a failure to write back mapped or buffered data
+	boolean flushed = releaseMappings(fd);
+
+	OpenFile file = fileTable[fd];
+	fileTable[fd] = null;
+
+	if (file instanceof BufferedFile)
+	    flushed &= ((BufferedFile) file).flush();
+
+	file.close();
+	return flushed ? 0 : -1;
+    }
+
+    /**
+     * Handle the mmap() system call. Mapping a file requires demand paging,
+     * so this process does not support it.
+     *
+     * @param	fd	the file descriptor of the file to map.
+     * @param	address	the virtual address to map it at.
+     * @return	the length of the file, or -1 on error.
+     */
+    protected int handleMmap(int fd, int address) {
+	return -1;
+    }
+
+    /**
+     * Handle the munmap() system call.
+     *
+     * @param	address	the address a file was mapped at.
+     * @return	0 on success, or -1 on error.
+     */
+    protected int handleMunmap(int address) {
+	return -1;
+    }
+
+    /**
+     * Handle the fork() system call. Cloning an address space without
+     * copying it requires demand paging, so this process does not support
+     * it.
+     *
+     * @return	the process ID of the child, or -1 on error.
+     */
+    protected int handleFork() {
+	return -1;
+    }
+
+    /**
+     * Remove every memory map of a file descriptor, writing dirty pages back
+     * to the file. Called by <tt>close()</tt> before the file is closed.
+     *
+     * @param	fd	the file descriptor being closed.
+     * @return	<tt>true</tt> if every dirty page was written back.
+     */
+    protected boolean releaseMappings(int fd) {
+	return true;
+    }
+
+    /**
+     * Handle the unlink() system call.
+     */
+    private int handleUnlink(int nameAddress) {
+	String name = readVirtualMemoryString(nameAddress, maxNameLength);
+	if (name == null)
+	    return -1;
+
+	return ThreadedKernel.fileSystem.remove(name) ? 0 : -1;
+    }
+
+    /**
+     * Return the file a descriptor refers to.
+     *
+     * @param	fd	a file descriptor.
+     * @return	the open file, or <tt>null</tt> if <i>fd</i> is not open.
+     */
+    protected OpenFile getFile(int fd) {
+	if (fd < 0 || fd >= fileTable.length)
+	    return null;
+
+	return fileTable[fd];
+    }
+
+    /**
+     * Return the lowest file descriptor that is not open.
+     *
+     * @return	a free file descriptor, or -1 if the table is full.
+     */
+    protected int freeDescriptor() {
+	for (int fd=0; fd<fileTable.length; fd++) {
+	    if (fileTable[fd] == null)
+		return fd;
+	}
+
+	return -1;
+    }
+
     private static final int
         syscallHalt = 0,
 	syscallExit = 1,
@@ -357,7 +752,15 @@ public class UserProcess {
 	syscallRead = 6,
 	syscallWrite = 7,
 	syscallClose = 8,
-	syscallUnlink = 9;
+	syscallUnlink = 9,
+	syscallMmap = 10,
+	syscallReadv = 13,
+	syscallWritev = 14,
+	syscallBatch = 15,
+	syscallIOSetup = 16,
+	syscallIOEnter = 17,
+	syscallMunmap = 18,
+	syscallFork = 19;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -378,6 +781,18 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>10</td><td><tt>int  mmap(int fd, char *address);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  readv(int fd, struct iovec *iov,
+     *							int iovcnt);</tt></td></tr>
+     * <tr><td>14</td><td><tt>int  writev(int fd, struct iovec *iov,
+     *							int iovcnt);</tt></td></tr>
+     * <tr><td>15</td><td><tt>int  batch(struct syscallRequest *requests,
+     *							int count);</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  iosetup(struct ioRing *ring, int entries);
+     *								</tt></td></tr>
+     * <tr><td>17</td><td><tt>int  ioenter(int minComplete);</tt></td></tr>
+     * <tr><td>18</td><td><tt>int  munmap(char *address);</tt></td></tr>
+     * <tr><td>19</td><td><tt>int  fork();</tt></td></tr>
      * </table>
      * 
      * @param	syscall	the syscall number.
@@ -391,7 +806,34 @@ public class UserProcess {
 	switch (syscall) {
 	case syscallHalt:
 	    return handleHalt();
-
+	case syscallCreate:
+	    return handleOpen(a0, true);
+	case syscallOpen:
+	    return handleOpen(a0, false);
+	case syscallRead:
+	    return handleRead(a0, a1, a2);
+	case syscallWrite:
+	    return handleWrite(a0, a1, a2);
+	case syscallClose:
+	    return handleClose(a0);
+	case syscallUnlink:
+	    return handleUnlink(a0);
+	case syscallMmap:
+	    return handleMmap(a0, a1);
+	case syscallMunmap:
+	    return handleMunmap(a0);
+	case syscallFork:
+	    return handleFork();
+	case syscallReadv:
+	    return handleVector(a0, a1, a2, false);
+	case syscallWritev:
+	    return handleVector(a0, a1, a2, true);
+	case syscallBatch:
+	    return handleBatch(a0, a1);
+	case syscallIOSetup:
+	    return handleIOSetup(a0, a1);
+	case syscallIOEnter:
+	    return handleIOEnter(a0);
 
 	default:
 	    Lib.debug(dbgProcess, "Unknown syscall " + syscall);
@@ -413,12 +855,15 @@ public class UserProcess {
 
 	switch (cause) {
 	case Processor.exceptionSyscall:
-	    int result = handleSyscall(processor.readRegister(Processor.regV0),
+	    int syscall = processor.readRegister(Processor.regV0);
+	    FlightEvents.Syscall event = FlightEvents.beginSyscall(syscall);
+	    int result = handleSyscall(syscall,
 				       processor.readRegister(Processor.regA0),
 				       processor.readRegister(Processor.regA1),
 				       processor.readRegister(Processor.regA2),
 				       processor.readRegister(Processor.regA3)
 				       );
+	    FlightEvents.end(event, result);
 	    processor.writeRegister(Processor.regV0, result);
 	    processor.advancePC();
 	    break;				       
@@ -432,15 +877,40 @@ public class UserProcess {
 
     /** The program being run by this process. */
     protected Coff coff;
+    /** The name of the file <tt>coff</tt> was loaded from. */
+    protected String executableName;
 
-    /** This process's page table. */
-    protected TranslationEntry[] pageTable;
+    /** This process's page table, packed one <tt>int</tt> per page. */
+    protected PackedPageTable pageTable;
     /** The number of contiguous pages occupied by the program. */
     protected int numPages;
 
     /** The number of pages in the program's stack. */
     protected final int stackPages = 8;
     
+    private int processID;
+    private static int nextProcessID = 0;
+
+    /** This process's open files, indexed by file descriptor. */
+    protected OpenFile[] fileTable = new OpenFile[maxOpenFiles];
+    /** This process's asynchronous I/O rings, if it has set them up. */
+    private IORing ioRing = null;
+    /** A kernel buffer for copying between user memory and files. */
+    private byte[] ioBuffer = new byte[pageSize];
+
+    private static final int maxOpenFiles = 16;
+    private static final int maxNameLength = 256;
+    private static final int maxVectorLength = 64;
+    private static final int maxBatchLength = 64;
+    /** The size of a <tt>struct iovec</tt>: base, length */
+    private static final int iovecSize = 8;
+    /** The size of a <tt>struct syscallRequest</tt>: syscall, args, result */
+    private static final int requestSize = 24;
+    private static final int fdStandardInput = 0;
+    private static final int fdStandardOutput = 1;
+    private static final int fileBufferSize =
+	Config.getInteger("Kernel.fileBufferSize", 4*Processor.pageSize);
+
     private int initialPC, initialSP;
     private int argc, argv;
 	
@@ -5,6 +5,9 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.util.HashMap;
+import java.util.LinkedList;
+
 /**
  * A kernel that can support multiple demand-paging user processes.
  */
@@ -17,10 +20,155 @@ public class VMKernel extends UserKernel {
     }
 
     /**
-     * Initialize this kernel.
+     * Initialize this kernel. Every physical page starts out free.
      */
     public void initialize(String[] args) {
 	super.initialize(args);
+
+	int numPhysPages = Machine.processor().getNumPhysPages();
+	referenceCounts = new int[numPhysPages];
+	sharedPageKeys = new String[numPhysPages];
+	for (int i=0; i<numPhysPages; i++)
+	    freePages.add(Integer.valueOf(i));
+    }
+
+    /**
+     * Allocate a free physical page, with one reference.
+     *
+     * @return	the physical page number, or -1 if no page is free.
+     */
+    public static int allocatePage() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int ppn = -1;
+	if (!freePages.isEmpty()) {
+	    ppn = freePages.removeFirst().intValue();
+	    referenceCounts[ppn] = 1;
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return ppn;
+    }
+
+    /**
+     * Add a reference to an allocated physical page, which is now shared by
+     * one more page table entry.
+     *
+     * @param	ppn	a physical page returned by <tt>allocatePage()</tt>.
+     */
+    public static void sharePage(int ppn) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(referenceCounts[ppn] > 0);
+	referenceCounts[ppn]++;
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of page table entries that refer to a physical page.
+     *
+     * @param	ppn	a physical page number.
+     * @return	the number of references, or 0 if the page is free.
+     */
+    public static int getReferenceCount(int ppn) {
+	return referenceCounts[ppn];
+    }
+
+    /**
+     * Remove a reference to a physical page, and return the page to the free
+     * list if it was the last one.
+     *
+     * @param	ppn	a physical page returned by <tt>allocatePage()</tt>.
+     */
+    public static void freePage(int ppn) {
+	Lib.assertTrue(ppn >= 0 && ppn < Machine.processor().getNumPhysPages());
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	Lib.assertTrue(referenceCounts[ppn] > 0);
+	if (--referenceCounts[ppn] == 0) {
+	    // a page nobody refers to cannot stay in the shared page cache
+	    String key = sharedPageKeys[ppn];
+	    if (key != null) {
+		sharedPages.remove(key);
+		sharedPageKeys[ppn] = null;
+	    }
+
+	    freePages.add(Integer.valueOf(ppn));
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Look up a read-only page of an executable in the shared page cache,
+     * and add a reference to it if it is there. Every process running the
+     * same executable can map the same physical page for a read-only
+     * section, instead of loading its own copy.
+     *
+     * <p>
+     * Pages are only cached while some process refers to them, and are
+     * identified by the executable's file name, so a program that is
+     * replaced while it is running is not noticed until every process
+     * running the old one has released its pages.
+     *
+     * @param	executable	the name of the executable file.
+     * @param	vpn		the virtual page of the read-only section.
+     * @return	the physical page holding it, with a new reference, or -1 if
+     *		the page is not cached.
+     */
+    public static int findSharedPage(String executable, int vpn) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int ppn = -1;
+	Integer cached = sharedPages.get(sharedPageKey(executable, vpn));
+	if (cached != null) {
+	    ppn = cached.intValue();
+	    referenceCounts[ppn]++;
+	    numSharedPageHits++;
+	}
+
+	Machine.interrupt().restore(intStatus);
+
+	return ppn;
+    }
+
+    /**
+     * Add a page, just loaded from a read-only section of an executable, to
+     * the shared page cache. If another process cached the same page first,
+     * the cache keeps that one.
+     *
+     * @param	executable	the name of the executable file.
+     * @param	vpn		the virtual page of the read-only section.
+     * @param	ppn		the physical page it was loaded into.
+     */
+    public static void addSharedPage(String executable, int vpn, int ppn) {
+	String key = sharedPageKey(executable, vpn);
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (!sharedPages.containsKey(key)) {
+	    sharedPages.put(key, Integer.valueOf(ppn));
+	    sharedPageKeys[ppn] = key;
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of read-only pages that were found in the shared
+     * page cache instead of being loaded.
+     *
+     * @return	the number of cache hits.
+     */
+    public static long getNumSharedPageHits() {
+	return numSharedPageHits;
+    }
+
+    private static String sharedPageKey(String executable, int vpn) {
+	return executable + ":" + vpn;
     }
 
     /**
@@ -44,6 +192,18 @@ public class VMKernel extends UserKernel {
 	super.terminate();
     }
 
+    /** The physical pages not in use by any process */
+    private static LinkedList<Integer> freePages = new LinkedList<Integer>();
+    /** The number of page table entries that refer to each physical page */
+    private static int[] referenceCounts;
+
+    /** Read-only executable pages, by executable name and virtual page */
+    private static HashMap<String,Integer> sharedPages =
+	new HashMap<String,Integer>();
+    /** The key of each physical page in <tt>sharedPages</tt>, if any */
+    private static String[] sharedPageKeys;
+    private static long numSharedPageHits = 0;
+
     // dummy variables to make javac smarter
     private static VMProcess dummy1 = null;
 
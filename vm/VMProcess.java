@@ -5,31 +5,94 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.util.BitSet;
+import java.util.LinkedList;
+
 /**
  * A <tt>UserProcess</tt> that supports demand-paging.
+ *
+ * <p>
+ * No page is given a physical page until it is first touched, either by the
+ * program, through a page fault or TLB miss, or by the kernel, through
+ * <tt>readVirtualMemory()</tt> or <tt>writeVirtualMemory()</tt>. A page of
+ * the executable is then loaded from its COFF section, a page of the stack or
+ * arguments is zero-filled, and a page of a memory-mapped file is read from
+ * the file.
+ *
+ * <p>
+ * When no physical page is free, a page that can be read back later is taken
+ * from this process: a read-only page of the executable, or a page of a
+ * mapped file, which is written back first if it is dirty. Stack and data
+ * pages are never evicted, since there is no swap file, and neither are
+ * physical pages shared with another process.
+ *
+ * <p>
+ * <tt>fork()</tt> shares every resident page of the parent with the child,
+ * counting the references to each physical page in <tt>VMKernel</tt>.
+ * Writable pages are made read-only in both processes and marked
+ * copy-on-write; the first write to one, by the program or the kernel, copies
+ * it into a page of the writer's own, unless no other process still refers
+ * to it.
+ *
+ * <p>
+ * Pages of read-only sections are also shared between processes that
+ * <tt>exec()</tt> the same executable: the first to touch a page loads it
+ * into the <tt>VMKernel</tt> shared page cache, and the others map the same
+ * physical page.
  */
 public class VMProcess extends UserProcess {
     /**
-     * Allocate a new process.
+     * Allocate a new process. Its page table covers the whole virtual
+     * address space, with every page invalid.
      */
     public VMProcess() {
 	super();
+
+	pageTable = new PackedPageTable(numVirtualPages);
     }
 
     /**
      * Save the state of this process in preparation for a context switch.
-     * Called by <tt>UThread.saveState()</tt>.
+     * Called by <tt>UThread.saveState()</tt>. The used and dirty bits of the
+     * TLB are copied to the page table, and the TLB is cleared for the next
+     * process.
      */
     public void saveState() {
 	super.saveState();
+
+	if (ownsTLB) {
+	    syncTLB(true);
+	    ownsTLB = false;
+	}
     }
 
     /**
      * Restore the state of this process after a context switch. Called by
-     * <tt>UThread.restoreState()</tt>.
+     * <tt>UThread.restoreState()</tt>. With a TLB, entries are loaded as
+     * they miss.
      */
     public void restoreState() {
-	super.restoreState();
+	if (Machine.processor().hasTLB())
+	    ownsTLB = true;
+	else
+	    super.restoreState();
+    }
+
+    /**
+     * Initialize the processor's registers. A forked child starts with a copy
+     * of its parent's registers, returning 0 from <tt>fork()</tt>.
+     */
+    public void initRegisters() {
+	if (forkRegisters == null) {
+	    super.initRegisters();
+	    return;
+	}
+
+	Processor processor = Machine.processor();
+	for (int i=0; i<Processor.numUserRegisters; i++)
+	    processor.writeRegister(i, forkRegisters[i]);
+
+	forkRegisters = null;
     }
 
     /**
@@ -39,15 +102,221 @@ public class VMProcess extends UserProcess {
      * @return	<tt>true</tt> if successful.
      */
     protected boolean loadSections() {
-	return super.loadSections();
+	if (numPages > pageTable.getNumPages()) {
+	    coff.close();
+	    Lib.debug(dbgProcess, "\tinsufficient virtual memory");
+	    return false;
+	}
+
+	// every page starts out invalid, and is loaded on its first fault
+	return true;
     }
 
     /**
-     * Release any resources allocated by <tt>loadSections()</tt>.
+     * Release any resources allocated by <tt>loadSections()</tt>. Every
+     * memory map is removed, writing its dirty pages back, and every physical
+     * page is freed.
      */
     protected void unloadSections() {
+	pageLock.acquire();
+
+	while (!mappings.isEmpty())
+	    unmap(mappings.getFirst());
+
+	if (ownsTLB)
+	    syncTLB(true);
+
+	for (int vpn=0; vpn<pageTable.getNumPages(); vpn++) {
+	    if (pageTable.isValid(vpn)) {
+		VMKernel.freePage(pageTable.getPPN(vpn));
+		pageTable.unmap(vpn);
+	    }
+	}
+	copyOnWrite.clear();
+
+	pageLock.release();
+
 	super.unloadSections();
-    }    
+    }
+
+    /**
+     * Translate a virtual address, first loading its page if it is not
+     * resident, so the kernel can copy to and from any page the program
+     * could touch.
+     */
+    protected int translate(int vaddr, boolean write) {
+	int vpn = Processor.pageFromAddress(vaddr);
+
+	if (vaddr >= 0 && (!pageTable.isValid(vpn) ||
+			   (write && copyOnWrite.get(vpn)))) {
+	    pageLock.acquire();
+	    if (pageIn(vpn) && write && copyOnWrite.get(vpn) && copyPage(vpn)) {
+		// the program must not keep using the old, shared page
+		if (ownsTLB)
+		    syncTLB(true);
+	    }
+	    pageLock.release();
+	}
+
+	return super.translate(vaddr, write);
+    }
+
+    /**
+     * Handle the fork() system call. The child shares this process's program
+     * and every resident page other than memory maps, and starts running
+     * after the syscall with this process's registers.
+     *
+     * @return	the process ID of the child, or -1 on error.
+     */
+    protected int handleFork() {
+	UserProcess process = UserProcess.newUserProcess();
+	if (!(process instanceof VMProcess))
+	    return -1;
+
+	VMProcess child = (VMProcess) process;
+	child.coff = coff;
+	child.executableName = executableName;
+	child.numPages = numPages;
+
+	Processor processor = Machine.processor();
+	child.forkRegisters = new int[Processor.numUserRegisters];
+	for (int i=0; i<Processor.numUserRegisters; i++)
+	    child.forkRegisters[i] = processor.readRegister(i);
+
+	// the child returns 0, from the instruction after the syscall
+	child.forkRegisters[Processor.regV0] = 0;
+	child.forkRegisters[Processor.regPC] =
+	    child.forkRegisters[Processor.regNextPC];
+	child.forkRegisters[Processor.regNextPC] += 4;
+
+	pageLock.acquire();
+
+	// the new read-only bits must not be bypassed by stale TLB entries
+	if (ownsTLB)
+	    syncTLB(true);
+
+	for (int vpn=0; vpn<pageTable.getNumPages(); vpn++) {
+	    if (!pageTable.isValid(vpn) || findPageMapping(vpn) != null)
+		continue;
+
+	    int ppn = pageTable.getPPN(vpn);
+	    VMKernel.sharePage(ppn);
+
+	    if (!pageTable.isReadOnly(vpn)) {
+		pageTable.setReadOnly(vpn, true);
+		copyOnWrite.set(vpn);
+	    }
+
+	    child.pageTable.map(vpn, ppn, true);
+	    if (copyOnWrite.get(vpn))
+		child.copyOnWrite.set(vpn);
+	}
+
+	pageLock.release();
+
+	Lib.debug(dbgVM, "fork " + getProcessID() + " -> "
+		  + child.getProcessID());
+
+	new UThread(child).setName("fork " + child.getProcessID()).fork();
+
+	return child.getProcessID();
+    }
+
+    /**
+     * Handle the mmap() system call. The file is not read until its pages are
+     * touched.
+     *
+     * @param	fd	the file descriptor of the file to map.
+     * @param	address	the page-aligned virtual address to map it at.
+     * @return	the length of the file, or -1 on error.
+     */
+    protected int handleMmap(int fd, int address) {
+	OpenFile file = getFile(fd);
+	if (file == null || address < 0 ||
+	    Processor.offsetFromAddress(address) != 0)
+	    return -1;
+
+	int length = file.length();
+	if (length < 0)
+	    return -1;
+
+	int firstVPN = Processor.pageFromAddress(address);
+	int mappedPages = (int) (((long) length + pageSize - 1) / pageSize);
+	if ((long) firstVPN + mappedPages > pageTable.getNumPages())
+	    return -1;
+
+	pageLock.acquire();
+
+	boolean overlaps = firstVPN < numPages;
+	for (Mapping m : mappings) {
+	    if (m.firstVPN < firstVPN+mappedPages &&
+		firstVPN < m.firstVPN+m.numPages)
+		overlaps = true;
+	}
+
+	if (!overlaps)
+	    mappings.add(new Mapping(fd, file, firstVPN, mappedPages, length));
+
+	pageLock.release();
+
+	Lib.debug(dbgVM, "mmap fd " + fd + " at page " + firstVPN + " ("
+		  + mappedPages + " pages)");
+
+	return overlaps ? -1 : length;
+    }
+
+    /**
+     * Handle the munmap() system call.
+     *
+     * @param	address	the address a file was mapped at.
+     * @return	0 on success, or -1 if there is no map at <i>address</i> or a
+     *		dirty page could not be written back.
+     */
+    protected int handleMunmap(int address) {
+	if (address < 0 || Processor.offsetFromAddress(address) != 0)
+	    return -1;
+
+	int firstVPN = Processor.pageFromAddress(address);
+	int result = -1;
+
+	pageLock.acquire();
+
+	for (Mapping m : mappings) {
+	    if (m.firstVPN == firstVPN) {
+		result = unmap(m) ? 0 : -1;
+		break;
+	    }
+	}
+
+	pageLock.release();
+
+	return result;
+    }
+
+    protected boolean releaseMappings(int fd) {
+	boolean written = true;
+
+	pageLock.acquire();
+
+	Mapping m;
+	while ((m = findFileMapping(fd)) != null)
+	    written &= unmap(m);
+
+	pageLock.release();
+
+	return written;
+    }
+
+    /**
+     * Return the file a descriptor refers to, unless the file is mapped, in
+     * which case it cannot be read or written until it is closed.
+     */
+    protected OpenFile getFile(int fd) {
+	if (findFileMapping(fd) != null)
+	    return null;
+
+	return super.getFile(fd);
+    }
 
     /**
      * Handle a user exception. Called by
@@ -61,12 +330,393 @@ public class VMProcess extends UserProcess {
 	Processor processor = Machine.processor();
 
 	switch (cause) {
+	case Processor.exceptionReadOnly:
+	    int writtenVPN = Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr));
+
+	    pageLock.acquire();
+	    boolean copied = copyPage(writtenVPN);
+	    if (copied && processor.hasTLB()) {
+		syncTLB(true);
+		fillTLB(writtenVPN);
+	    }
+	    pageLock.release();
+
+	    // retry the write, or give up on a page that really is read-only
+	    if (!copied)
+		super.handleException(cause);
+	    break;
+
+	case Processor.exceptionTLBMiss:
+	case Processor.exceptionPageFault:
+	    int vpn = Processor.pageFromAddress(processor.readRegister(Processor.regBadVAddr));
+
+	    pageLock.acquire();
+	    boolean resident = pageIn(vpn);
+	    if (resident && processor.hasTLB())
+		fillTLB(vpn);
+	    pageLock.release();
+
+	    // retry the instruction, or give up on a page that does not exist
+	    if (!resident)
+		super.handleException(cause);
+	    break;
+
 	default:
 	    super.handleException(cause);
 	    break;
 	}
     }
-	
+
+    /**
+     * Make a page resident, if it is not already, by giving it a physical
+     * page and filling it. Called with the page lock held.
+     *
+     * @param	vpn	the virtual page to load.
+     * @return	<tt>true</tt> if the page is resident.
+     */
+    private boolean pageIn(int vpn) {
+	if (pageTable.isValid(vpn))
+	    return true;
+
+	Mapping mapping = findPageMapping(vpn);
+	if (vpn < 0 || (vpn >= numPages && mapping == null))
+	    return false;
+
+	CoffSection section = (mapping == null) ? findSection(vpn) : null;
+
+	// another process running this program may have the page already
+	if (section != null && section.isReadOnly()) {
+	    int sharedPPN = VMKernel.findSharedPage(executableName, vpn);
+	    if (sharedPPN != -1) {
+		pageTable.map(vpn, sharedPPN, true);
+
+		Lib.debug(dbgVM, "\tpage " + vpn + " shared in physical page "
+			  + sharedPPN);
+		return true;
+	    }
+	}
+
+	int ppn = allocatePage();
+	if (ppn == -1) {
+	    Lib.debug(dbgVM, "\tno physical page for page " + vpn);
+	    return false;
+	}
+
+	byte[] memory = Machine.processor().getMemory();
+	int paddr = Processor.makeAddress(ppn, 0);
+	boolean readOnly = false;
+
+	if (section != null) {
+	    section.loadPage(vpn-section.getFirstVPN(), ppn);
+	    readOnly = section.isReadOnly();
+
+	    if (readOnly)
+		VMKernel.addSharedPage(executableName, vpn, ppn);
+	}
+	else {
+	    int amount = 0;
+	    if (mapping != null) {
+		int position = (vpn-mapping.firstVPN)*pageSize;
+		amount = mapping.file.read(position, memory, paddr,
+					   Math.min(pageSize,
+						    mapping.length-position));
+		amount = Math.max(amount, 0);
+	    }
+
+	    // zero-fill the stack, the arguments, and the end of the file
+	    for (int i=amount; i<pageSize; i++)
+		memory[paddr+i] = 0;
+	}
+
+	pageTable.map(vpn, ppn, readOnly);
+
+	Lib.debug(dbgVM, "\tpage " + vpn + " loaded into physical page " + ppn);
+	return true;
+    }
+
+    /**
+     * Give a resident copy-on-write page a physical page of its own, so it
+     * can be written. If no other page table refers to its physical page any
+     * more, the page is just made writable. Called with the page lock held.
+     *
+     * @param	vpn	the virtual page being written.
+     * @return	<tt>true</tt> if the page is now writable, or <tt>false</tt>
+     *		if it is not copy-on-write or no physical page is free.
+     */
+    private boolean copyPage(int vpn) {
+	if (!copyOnWrite.get(vpn))
+	    return !pageTable.isReadOnly(vpn);
+
+	int oldPPN = pageTable.getPPN(vpn);
+
+	if (VMKernel.getReferenceCount(oldPPN) > 1) {
+	    int ppn = allocatePage();
+	    if (ppn == -1)
+		return false;
+
+	    byte[] memory = Machine.processor().getMemory();
+	    System.arraycopy(memory, Processor.makeAddress(oldPPN, 0),
+			     memory, Processor.makeAddress(ppn, 0), pageSize);
+
+	    pageTable.map(vpn, ppn, false);
+	    VMKernel.freePage(oldPPN);
+
+	    Lib.debug(dbgVM, "\tcopied page " + vpn + " into physical page "
+		      + ppn);
+	}
+	else {
+	    pageTable.setReadOnly(vpn, false);
+	}
+
+	copyOnWrite.clear(vpn);
+	return true;
+    }
+
+    /**
+     * Allocate a free physical page, evicting pages of this process until
+     * one is free if necessary. Called with the page lock held.
+     *
+     * @return	the physical page number, or -1 if there is none to take.
+     */
+    private int allocatePage() {
+	while (true) {
+	    int ppn = VMKernel.allocatePage();
+	    if (ppn != -1 || !evictPage())
+		return ppn;
+	}
+    }
+
+    /**
+     * Free the physical page of a page of this process that can be loaded
+     * again, using the clock algorithm on the used bits. Called with the
+     * page lock held.
+     *
+     * @return	<tt>true</tt> if a page was evicted.
+     */
+    private boolean evictPage() {
+	if (ownsTLB)
+	    syncTLB(true);
+
+	// two sweeps: the first may only clear used bits
+	for (int n=0; n<2*pageTable.getNumPages(); n++) {
+	    int vpn = clockHand;
+	    clockHand = (clockHand+1) % pageTable.getNumPages();
+
+	    if (!pageTable.isValid(vpn))
+		continue;
+
+	    // shared pages cannot be taken, since another process uses them
+	    Mapping mapping = findPageMapping(vpn);
+	    if ((mapping == null &&
+		 !(vpn < numPages && pageTable.isReadOnly(vpn))) ||
+		copyOnWrite.get(vpn) ||
+		VMKernel.getReferenceCount(pageTable.getPPN(vpn)) > 1)
+		continue;
+
+	    if (pageTable.isUsed(vpn)) {
+		pageTable.clearUsed(vpn);
+		continue;
+	    }
+
+	    if (mapping != null && pageTable.isDirty(vpn))
+		writeBack(mapping, vpn);
+
+	    // freeing also drops the page from the shared page cache
+	    VMKernel.freePage(pageTable.getPPN(vpn));
+	    pageTable.unmap(vpn);
+
+	    Lib.debug(dbgVM, "\tevicted page " + vpn);
+	    return true;
+	}
+
+	return false;
+    }
+
+    /**
+     * Write a dirty page of a mapped file back to the file, up to the end of
+     * the file.
+     *
+     * @return	<tt>true</tt> if the whole page was written.
+     */
+    private boolean writeBack(Mapping mapping, int vpn) {
+	int position = (vpn-mapping.firstVPN)*pageSize;
+	int length = Math.min(pageSize, mapping.length-position);
+	int paddr = Processor.makeAddress(pageTable.getPPN(vpn), 0);
+
+	pageTable.clearDirty(vpn);
+
+	return mapping.file.write(position, Machine.processor().getMemory(),
+				  paddr, length) == length;
+    }
+
+    /**
+     * Remove a memory map, writing its dirty pages back and freeing its
+     * physical pages. Called with the page lock held.
+     *
+     * @return	<tt>true</tt> if every dirty page was written back.
+     */
+    private boolean unmap(Mapping mapping) {
+	if (ownsTLB)
+	    syncTLB(true);
+
+	boolean written = true;
+
+	for (int vpn=mapping.firstVPN; vpn<mapping.firstVPN+mapping.numPages;
+	     vpn++) {
+	    if (!pageTable.isValid(vpn))
+		continue;
+
+	    if (pageTable.isDirty(vpn))
+		written &= writeBack(mapping, vpn);
+
+	    VMKernel.freePage(pageTable.getPPN(vpn));
+	    pageTable.unmap(vpn);
+	}
+
+	if (mapping.file instanceof BufferedFile)
+	    written &= ((BufferedFile) mapping.file).flush();
+
+	mappings.remove(mapping);
+
+	Lib.debug(dbgVM, "munmap page " + mapping.firstVPN);
+	return written;
+    }
+
+    /**
+     * Load a resident page into the TLB, replacing an invalid entry if there
+     * is one, and otherwise the entries in turn. The replaced entry's used
+     * and dirty bits are copied to the page table first.
+     */
+    private void fillTLB(int vpn) {
+	Processor processor = Machine.processor();
+
+	int index = -1;
+	for (int i=0; i<processor.getTLBSize() && index == -1; i++) {
+	    if (!processor.readTLBEntry(i).valid)
+		index = i;
+	}
+
+	if (index == -1) {
+	    index = nextTLBEntry;
+	    nextTLBEntry = (nextTLBEntry+1) % processor.getTLBSize();
+
+	    syncTLBEntry(index, processor.readTLBEntry(index));
+	}
+
+	processor.writeTLBEntry(index, pageTable.getEntry(vpn));
+    }
+
+    /**
+     * Copy the used and dirty bits of every valid TLB entry to the page
+     * table. Must only be called while the TLB holds this process's
+     * entries.
+     *
+     * @param	invalidate	<tt>true</tt> to also invalidate every entry.
+     */
+    private void syncTLB(boolean invalidate) {
+	Processor processor = Machine.processor();
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    TranslationEntry entry = processor.readTLBEntry(i);
+	    if (!entry.valid)
+		continue;
+
+	    syncTLBEntry(i, entry);
+
+	    if (invalidate) {
+		entry.valid = false;
+		processor.writeTLBEntry(i, entry);
+	    }
+	}
+    }
+
+    private void syncTLBEntry(int index, TranslationEntry entry) {
+	if (!entry.valid || !pageTable.isValid(entry.vpn) ||
+	    pageTable.getPPN(entry.vpn) != entry.ppn)
+	    return;
+
+	TranslationEntry current = pageTable.getEntry(entry.vpn);
+	current.used |= entry.used;
+	current.dirty |= entry.dirty;
+	pageTable.setEntry(entry.vpn, current);
+    }
+
+    /**
+     * Return the COFF section that contains a page of the executable.
+     *
+     * @return	the section, or <tt>null</tt> if the page is in the stack or
+     *		arguments.
+     */
+    private CoffSection findSection(int vpn) {
+	for (int s=0; s<coff.getNumSections(); s++) {
+	    CoffSection section = coff.getSection(s);
+	    if (vpn >= section.getFirstVPN() &&
+		vpn < section.getFirstVPN()+section.getLength())
+		return section;
+	}
+
+	return null;
+    }
+
+    /**
+     * Return the memory map that contains a page, or <tt>null</tt>.
+     */
+    private Mapping findPageMapping(int vpn) {
+	for (Mapping m : mappings) {
+	    if (vpn >= m.firstVPN && vpn < m.firstVPN+m.numPages)
+		return m;
+	}
+
+	return null;
+    }
+
+    /**
+     * Return a memory map of a file descriptor, or <tt>null</tt>.
+     */
+    private Mapping findFileMapping(int fd) {
+	for (Mapping m : mappings) {
+	    if (m.fd == fd)
+		return m;
+	}
+
+	return null;
+    }
+
+    /**
+     * A file mapped into this process's address space.
+     */
+    private static class Mapping {
+	Mapping(int fd, OpenFile file, int firstVPN, int numPages, int length) {
+	    this.fd = fd;
+	    this.file = file;
+	    this.firstVPN = firstVPN;
+	    this.numPages = numPages;
+	    this.length = length;
+	}
+
+	int fd;
+	OpenFile file;
+	int firstVPN, numPages;
+	/** The length of the file when it was mapped */
+	int length;
+    }
+
+    private LinkedList<Mapping> mappings = new LinkedList<Mapping>();
+
+    /** Held while pages are loaded, evicted or unmapped */
+    private Lock pageLock = new Lock();
+    private int clockHand = 0;
+    private int nextTLBEntry = 0;
+    /** Set while this process is running, and the TLB holds its entries */
+    private boolean ownsTLB = false;
+    /** The pages that are read-only only until they are copied */
+    private BitSet copyOnWrite = new BitSet();
+    /** The registers a forked child starts with, until it first runs */
+    private int[] forkRegisters = null;
+
+    /** The number of pages in each process's virtual address space */
+    private static final int numVirtualPages = 1 << 14;
+
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';
     private static final char dbgVM = 'v';